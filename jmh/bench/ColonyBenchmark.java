@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import logic.Colony;
+import logic.Engines;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Advances a colony a generation at a time, which is what the GUI pays
+ * for: the engine's step and everything following its changes, the history,
+ * cycle detection and the copy into the view. Compare with StepBenchmark
+ * for the cost over the bare engine.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ColonyBenchmark {
+
+	@Param({ "Array", "Bit-packed", "Parallel", "Vector", "Tiled",
+			"HashLife", "Sparse" })
+	public String engine;
+
+	@Param({ "256", "1024", "2048" })
+	public int size;
+
+	private Colony colony;
+
+	@Setup
+	public void setUp() {
+		colony = new Colony(bench.Benchmark.soup(size, size, 0.3));
+		colony.setEngine(Engines.create(engine, new boolean[0][0]));
+	}
+
+	@Benchmark
+	public void advance() {
+		colony.advance();
+	}
+}
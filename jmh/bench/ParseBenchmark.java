@@ -0,0 +1,79 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import logic.PatternCache;
+import logic.PatternFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads every readable pattern file under the patterns directory, or the
+ * directory named by the bench.patterns property, straight from the file
+ * or through a PatternCache, in passes over all of them per second.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	private ArrayList<File> files = new ArrayList<File>();
+	private PatternCache cache = new PatternCache(Long.MAX_VALUE);
+
+	@Setup
+	public void setUp() {
+		ArrayList<File> all = new ArrayList<File>();
+		list(new File(System.getProperty("bench.patterns", "patterns")), all);
+		for (File f : all) {
+			try {
+				PatternFile.load(f);
+				files.add(f);
+			} catch (Exception e) { // left out, as by Benchmark.parse()
+			}
+		}
+		if (files.isEmpty())
+			throw new IllegalStateException("No pattern files found");
+	}
+
+	private static void list(File dir, ArrayList<File> files) {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		for (File f : children) {
+			if (f.isDirectory())
+				list(f, files);
+			else if (f.getName().endsWith(".lif")
+					|| f.getName().endsWith(".col"))
+				files.add(f);
+		}
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) throws IOException {
+		for (File f : files)
+			bh.consume(PatternFile.load(f));
+	}
+
+	@Benchmark
+	public void cached(Blackhole bh) throws IOException {
+		for (File f : files)
+			bh.consume(cache.load(f));
+	}
+}
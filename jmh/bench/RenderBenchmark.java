@@ -0,0 +1,75 @@
+package bench;
+
+import gui.ColonyRenderer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import logic.Colony;
+import logic.ColonyView;
+import logic.DensityPyramid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Draws a whole colony into an offscreen image, as ColonyPanel paints it,
+ * at 1 pixel a cell or zoomed out, in frames per second. Unlike
+ * Benchmark.render() it needs no display, since it uses the renderer
+ * rather than the panel.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+
+	@Param({ "256", "1024", "2048" })
+	public int size;
+
+	@Param({ "0", "2" })
+	public int level;
+
+	private ColonyView view;
+	private ColonyRenderer renderer = new ColonyRenderer();
+	private BufferedImage image;
+	private Graphics2D g;
+	private int blocks;
+
+	@Setup
+	public void setUp() {
+		view = new Colony(bench.Benchmark.soup(size, size, 0.3)).getView();
+		blocks = DensityPyramid.blocks(size, level);
+		image = new BufferedImage(blocks, blocks, BufferedImage.TYPE_INT_RGB);
+		g = image.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public void render() {
+		synchronized (view) {
+			renderer.update(view, level, 0, 0, blocks, blocks, Color.BLACK,
+					Color.WHITE);
+		}
+		renderer.draw(g, 0, 0, blocks, blocks, 1);
+	}
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import logic.Engine;
+import logic.Engines;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steps each engine over a random soup, as Benchmark.step() does, in
+ * generations per second. The soup settles as it is stepped, so longer runs
+ * measure a quieter colony.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class StepBenchmark {
+
+	@Param({ "Array", "Bit-packed", "Parallel", "Vector", "Tiled",
+			"HashLife", "Sparse" })
+	public String engine;
+
+	@Param({ "256", "1024", "2048" })
+	public int size;
+
+	@Param({ "0.1", "0.3", "0.5" })
+	public double density;
+
+	private Engine stepped;
+
+	@Setup
+	public void setUp() {
+		stepped = Engines.create(engine,
+				bench.Benchmark.soup(size, size, density));
+	}
+
+	@Benchmark
+	public void step() {
+		stepped.step();
+	}
+}
@@ -0,0 +1,257 @@
+package bench;
+
+import gui.ColonyPanel;
+import gui.Toolbar;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import logic.Colony;
+import logic.Engine;
+import logic.Engines;
+import logic.PatternCache;
+import logic.PatternFile;
+import logic.Rule;
+
+/**
+ * Measures stepping, parsing and rendering so changes to the engines,
+ * LifeFileReader or ColonyPanel can be compared against the same baseline.
+ * <p>
+ * Usage: java bench.Benchmark [step] [rules] [parse] [render] [-time seconds]
+ * [-patterns directory]. With no benchmarks named, all of them are run.
+ * Every result is reported as operations per second and bytes allocated
+ * per operation by the benchmark thread.
+ *
+ */
+public class Benchmark {
+
+	public static final int[] SIZES = { 256, 1024, 2048 };
+	public static final double[] DENSITIES = { 0.1, 0.3, 0.5 };
+
+	private static double seconds = 2; // measured time per benchmark
+	private static File patterns = new File("patterns");
+
+	public static void main(String[] args) throws IOException {
+		ArrayList<String> which = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-time"))
+				seconds = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-patterns"))
+				patterns = new File(args[++i]);
+			else
+				which.add(args[i]);
+		}
+		if (which.isEmpty()) {
+			which.add("step");
+			which.add("rules");
+			which.add("parse");
+			which.add("render");
+		}
+
+		if (which.contains("step"))
+			step();
+		if (which.contains("rules"))
+			rules();
+		if (which.contains("parse"))
+			parse();
+		if (which.contains("render"))
+			render();
+	}
+
+	/**
+	 * Steps every engine over random soups of each size and density.
+	 */
+	public static void step() {
+		System.out.println("# step: engine size density -> gens/s cells/s bytes/gen");
+		for (String name : Engines.NAMES)
+			for (int size : SIZES)
+				for (double density : DENSITIES) {
+					System.out.printf("%-10s %5d %.1f -> ", name, size,
+							density);
+					measure(Engines.create(name, soup(size, size, density)));
+				}
+	}
+
+	/**
+	 * Steps every engine under each named rule, from the same soup. The
+	 * engines that skip quiet areas depend on how busy the rule keeps them;
+	 * the others should not care which rule it is.
+	 */
+	public static void rules() {
+		System.out.println("# rules: engine rule -> gens/s cells/s bytes/gen");
+		int size = 1024;
+		for (String name : Engines.NAMES)
+			for (int i = 0; i < Rule.RULES.length; i++) {
+				Engine engine = Engines.create(name, soup(size, size, 0.3));
+				engine.setRule(Rule.RULES[i]);
+				System.out.printf("%-10s %-14s -> ", name, Rule.RULES[i]);
+				measure(engine);
+			}
+	}
+
+	/**
+	 * Steps the engine for a while so the JIT has compiled it, then for the
+	 * measured time, and prints gens/s, cells/s and bytes/gen.
+	 */
+	private static void measure(Engine engine) {
+		long end = System.nanoTime() + (long) (seconds * 0.5e9);
+		while (System.nanoTime() < end)
+			engine.step();
+
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		end = start + (long) (seconds * 1e9);
+		long gens = 0;
+		while (System.nanoTime() < end) {
+			engine.step();
+			gens++;
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		bytes = allocatedBytes() - bytes;
+		System.out.printf("%10.1f %14.4g %10d%n", gens / elapsed, gens
+				* (double) engine.getWidth() * engine.getHeight() / elapsed,
+				bytes / gens);
+	}
+
+	/**
+	 * Loads every pattern file under the patterns directory.
+	 */
+	public static void parse() throws IOException {
+		ArrayList<File> files = new ArrayList<File>();
+		listFiles(patterns, files);
+
+		// warm up, leaving out the files that can't be read
+		ArrayList<File> failed = new ArrayList<File>();
+		for (File f : files) {
+			try {
+				PatternFile.load(f);
+			} catch (Exception e) {
+				failed.add(f);
+			}
+		}
+		files.removeAll(failed);
+		for (File f : failed)
+			System.out.println("# parse: skipping unreadable " + f);
+
+		long size = 0;
+		for (File f : files)
+			size += f.length();
+		System.out.println("# parse: " + files.size() + " files, " + size
+				+ " bytes, read or through a PatternCache"
+				+ " -> files/s MB/s bytes/file");
+
+		System.out.print("parsed ");
+		load(files, null);
+		System.out.print("cached ");
+		load(files, new PatternCache(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Loads the files over and over, through the cache if there is one, and
+	 * prints the rate.
+	 */
+	private static void load(ArrayList<File> files, PatternCache cache)
+			throws IOException {
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + (long) (seconds * 1e9);
+		long loaded = 0, read = 0;
+		while (System.nanoTime() < end) {
+			for (File f : files) {
+				if (cache == null)
+					PatternFile.load(f);
+				else
+					cache.load(f);
+				read += f.length();
+			}
+			loaded += files.size();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		bytes = allocatedBytes() - bytes;
+		System.out.printf("%10.1f %10.2f %12d%n", loaded / elapsed, read / elapsed
+				/ 1e6, bytes / Math.max(1, loaded));
+	}
+
+	private static void listFiles(File dir, ArrayList<File> files) {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		for (File f : children) {
+			if (f.isDirectory())
+				listFiles(f, files);
+			else if (f.getName().endsWith(".lif")
+					|| f.getName().endsWith(".col"))
+				files.add(f);
+		}
+	}
+
+	/**
+	 * Paints a ColonyPanel into an offscreen image at each size.
+	 */
+	public static void render() {
+		if (GraphicsEnvironment.isHeadless()) { // ColonyPanel is a drop target
+			System.out.println("# render: skipped, no display");
+			return;
+		}
+		System.out.println("# render: size -> frames/s cells/s bytes/frame");
+		for (int size : SIZES) {
+			Colony colony = new Colony(soup(size, size, 0.3));
+			Toolbar toolbar = new Toolbar(colony);
+			ColonyPanel panel = new ColonyPanel(colony, toolbar);
+			panel.setSize(panel.getPreferredSize());
+			BufferedImage image = new BufferedImage(panel.getWidth(),
+					panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = image.createGraphics();
+
+			long end = System.nanoTime() + (long) (seconds * 0.5e9);
+			while (System.nanoTime() < end)
+				panel.paint(g); // warm up
+
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			end = start + (long) (seconds * 1e9);
+			long frames = 0;
+			while (System.nanoTime() < end) {
+				panel.paint(g);
+				frames++;
+			}
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			bytes = allocatedBytes() - bytes;
+			g.dispose();
+			System.out.printf("%5d -> %10.1f %14.4g %12d%n", size, frames
+					/ elapsed, frames * (double) size * size / elapsed, bytes
+					/ Math.max(1, frames));
+		}
+	}
+
+	/**
+	 * @return a random grid, the same every time for the same arguments
+	 */
+	public static boolean[][] soup(int width, int height, double density) {
+		Random random = new Random(width * 31 + height);
+		boolean[][] grid = new boolean[height][width];
+		for (int row = 0; row < height; row++)
+			for (int col = 0; col < width; col++)
+				grid[row][col] = random.nextDouble() < density;
+		return grid;
+	}
+
+	/**
+	 * @return the bytes allocated so far by this thread, or 0 if the JVM
+	 *         can't tell
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+}
@@ -0,0 +1,195 @@
+package cli;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.management.JMException;
+
+import logic.Engine;
+import logic.Engines;
+import logic.HashLifeEngine;
+import logic.PatternFile;
+import logic.PatternWriter;
+import logic.Rule;
+import logic.SimulationMetrics;
+import logic.SnapshotFile;
+import logic.UnboundedEngine;
+
+/**
+ * Runs a colony from the command line without a display. Never touches AWT
+ * or Swing: the pattern is read with PatternFile and stepped directly by an
+ * Engine, not through Colony and its worker thread.
+ * <p>
+ * Usage: java cli.BatchRunner file [-generations n] [-time seconds]
+ * [-engine name] [-jump exponent] [-rule B/S] [-torus] [-out file]
+ * <p>
+ * The rule is the one the file was written for, B3/S23 if it doesn't say,
+ * unless -rule is given. -torus wraps the grid around its edges. -jump
+ * makes HashLife step 2^exponent generations at a time; the last few
+ * generations are stepped in smaller jumps, so the run stops on the count.
+ * <p>
+ * Stops after the given number of generations or when the time runs out,
+ * whichever comes first, then writes the final colony (RLE for .lif/.rle, a
+ * binary snapshot for .lifb, .col otherwise) and prints the run's throughput.
+ * A run from a snapshot carries on from the snapshot's generation. For the
+ * unbounded engines (HashLife, Sparse) what is written is every live cell in
+ * the universe, not just those left in the starting rectangle.
+ *
+ */
+public class BatchRunner {
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		File in = null, out = null;
+		long generations = Long.MAX_VALUE;
+		double seconds = Double.POSITIVE_INFINITY;
+		String engineName = "Bit-packed";
+		int jump = 0;
+		Rule rule = null;
+		boolean torus = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-generations"))
+				generations = Long.parseLong(args[++i]);
+			else if (args[i].equals("-time"))
+				seconds = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-engine"))
+				engineName = args[++i];
+			else if (args[i].equals("-jump"))
+				jump = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-rule"))
+				rule = Rule.parse(args[++i]);
+			else if (args[i].equals("-torus"))
+				torus = true;
+			else if (args[i].equals("-out"))
+				out = new File(args[++i]);
+			else
+				in = new File(args[i]);
+		}
+		if (in == null
+				|| (generations == Long.MAX_VALUE && seconds == Double.POSITIVE_INFINITY)) {
+			System.err.println("usage: java cli.BatchRunner file [-generations n]"
+					+ " [-time seconds] [-engine name] [-jump exponent]"
+					+ " [-rule B/S] [-torus] [-out file]");
+			System.exit(2);
+		}
+
+		// snapshots go straight into packed engines, without a grid
+		SnapshotFile snapshot = null;
+		PatternFile.Pattern pattern = null;
+		boolean[][] grid;
+		if (in.getName().endsWith(SnapshotFile.EXTENSION)) {
+			snapshot = SnapshotFile.open(in);
+			grid = new boolean[0][0];
+		} else {
+			pattern = PatternFile.read(in, null);
+			if (pattern == null) {
+				System.err.println("Unknown file type: " + in);
+				System.exit(1);
+			}
+			grid = pattern.getGrid();
+		}
+		Engine engine = Engines.create(engineName, grid);
+		if (engine == null) {
+			System.err.println("Unknown engine: " + engineName);
+			System.exit(2);
+		}
+		long first = 0; // the generation the run starts from
+		if (snapshot != null) {
+			snapshot.loadInto(engine);
+			first = snapshot.getGeneration();
+		}
+		if (rule == null)
+			rule = snapshot != null ? PatternFile.toRule(snapshot.getRule())
+					: pattern.getRule();
+		if (rule != null)
+			engine.setRule(rule);
+		engine.setToroidal(torus);
+		if (engine instanceof HashLifeEngine)
+			((HashLifeEngine) engine).setStepExponent(jump);
+		long perStep = engine.getStepSize();
+
+		SimulationMetrics metrics = new SimulationMetrics();
+		try { // so a long run can be watched
+			metrics.register();
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		long cells = (long) engine.getWidth() * engine.getHeight();
+
+		long start = System.nanoTime();
+		long deadline = seconds == Double.POSITIVE_INFINITY ? Long.MAX_VALUE
+				: start + (long) (seconds * 1e9);
+		long done = 0, now = start, counted = 0;
+		while (done < generations && now < deadline) {
+			if (perStep > generations - done) { // jump the rest in smaller steps
+				if (!(engine instanceof HashLifeEngine)) {
+					System.err.println("Stopped " + (generations - done)
+							+ " generations short: the steps are " + perStep);
+					break;
+				}
+				((HashLifeEngine) engine).setStepExponent(63 - Long
+						.numberOfLeadingZeros(generations - done));
+				perStep = engine.getStepSize();
+			}
+			long allocated = SimulationMetrics.allocatedBytes();
+			engine.step();
+			done += perStep;
+			long then = System.nanoTime();
+			metrics.stepped(perStep, perStep * cells, then - now,
+					SimulationMetrics.allocatedBytes() - allocated);
+			if (then - counted >= 1000000000L) { // counting is a full scan
+				metrics.setState(first + done, engine.getPopulation());
+				counted = then;
+			}
+			now = then;
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		if (out != null && engine instanceof UnboundedEngine) {
+			boolean[][] live = liveCells((UnboundedEngine) engine);
+			if (out.getName().endsWith(SnapshotFile.EXTENSION))
+				SnapshotFile.save(live, engine.getRule().toString(), first
+						+ done, out);
+			else
+				PatternWriter.save(live, engine.getRule().toString(), out);
+		} else if (out != null && out.getName().endsWith(SnapshotFile.EXTENSION))
+			SnapshotFile.save(engine, engine.getRule().toString(), first
+					+ done, out);
+		else if (out != null)
+			PatternWriter.save(engine.getGrid(), engine.getRule().toString(),
+					out);
+
+		System.out.println("file:        " + in);
+		System.out.println("engine:      " + engineName);
+		System.out.println("rule:        " + engine.getRule()
+				+ (engine.isToroidal() ? " on a torus" : ""));
+		System.out.println("size:        " + engine.getWidth() + "x"
+				+ engine.getHeight());
+		System.out.println("generations: " + done);
+		System.out.println("generation:  " + (first + done));
+		System.out.println("population:  " + engine.getPopulation());
+		System.out.printf("seconds:     %.3f%n", elapsed);
+		System.out.printf("gens/s:      %.1f%n", done / elapsed);
+		System.out.printf("cells/s:     %.4g%n", done * (double) cells
+				/ elapsed);
+	}
+
+	/**
+	 * @return the bounding box of every live cell in the universe. Exits if
+	 *         it is too big to hold as a grid.
+	 */
+	private static boolean[][] liveCells(UnboundedEngine engine) {
+		long[] bounds = engine.getBounds();
+		if (bounds == null)
+			return new boolean[0][0];
+		if (bounds[2] > Integer.MAX_VALUE || bounds[3] > Integer.MAX_VALUE
+				|| bounds[2] * bounds[3] > Integer.MAX_VALUE) {
+			System.err.println("The live cells span " + bounds[3] + "x"
+					+ bounds[2] + ", too big to write");
+			System.exit(1);
+		}
+		return engine.getGrid(bounds[0], bounds[1], (int) bounds[2],
+				(int) bounds[3]);
+	}
+}
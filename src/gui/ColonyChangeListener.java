@@ -1,17 +1,30 @@
 package gui;
 
-import logic.Colony;
+import logic.ColonyEvent;
 
 /**
- * Used by ColonyPanel to listen to Colony changes.
+ * Used by ColonyPanel to listen to Colony changes. Events arrive through the
+ * colony's ColonyEventBus, on the event thread unless the listener was added
+ * as a background listener, and events that arrive while a listener is busy
+ * are merged into one.
  * 
  * @author Soheil Koushan
  * 
  */
 public interface ColonyChangeListener {
-	public void colonyChanged(Colony colony);
+	public void colonyChanged(ColonyEvent e);
 
-	public void simulationToggled();
+	public void simulationToggled(ColonyEvent e);
 
-	public void colonyAdvanced(Colony colony);
+	/**
+	 * Called when the cells changed: the colony stepped, was edited or went
+	 * back. The event says which parts changed.
+	 */
+	public void colonyAdvanced(ColonyEvent e);
+
+	/**
+	 * Called when the colony starts repeating itself: see
+	 * Colony.getPeriod().
+	 */
+	public void cycleDetected(ColonyEvent e);
 }
@@ -19,6 +19,9 @@ import javax.swing.JPanel;
 import javax.swing.event.MouseInputAdapter;
 
 import logic.Colony;
+import logic.ColonyEvent;
+import logic.ColonyView;
+import logic.DensityPyramid;
 
 /**
  * Displays its associated Colony. Files can be dragged and dropped onto this.
@@ -29,6 +32,7 @@ import logic.Colony;
 public class ColonyPanel extends JPanel implements ColonyChangeListener {
 
 	private int cell_size;
+	private int level; // zoomed out: 2^level cells a pixel, else 0
 
 	private Colony colony;
 	private Toolbar toolbar;
@@ -42,6 +46,7 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 	public Color backgroundColor = Color.WHITE;
 	public Color cellColor = Color.BLACK;
 	public boolean randomForeground = false;
+	private ColonyRenderer renderer = new ColonyRenderer();
 
 	public ColonyPanel(Colony c, Toolbar t) {
 		super();
@@ -49,8 +54,7 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 		toolbar = t;
 		cell_size = t.cell_size;
 
-		setPreferredSize(new Dimension(colony.getWidth() * cell_size,
-				colony.getHeight() * cell_size));
+		setPreferredSize(colonySize());
 
 		// Create the drag and drop listener
 		MyDragDropListener myDragDropListener = new MyDragDropListener();
@@ -65,25 +69,33 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 	}
 
 	public void paintComponent(Graphics g) {
+		long start = System.nanoTime();
 		super.paintComponent(g);
 
 		if (randomForeground) // get random color every repaint
 			cellColor = (Color.getHSBColor((float) Math.random(),
 					randomInRange(0.8F, 1.0F), 1.0F));
 
-		/* iterate over the grid and draw using CELL_SIZE */
-		for (int row = 0; row < colony.getHeight(); row++)
-			for (int col = 0; col < colony.getWidth(); col++) {
-				if (colony.alive(row, col)) {
-					g.setColor(cellColor);
-					g.fillRect(col * cell_size, row * cell_size, cell_size,
-							cell_size);
-				} else {
-					g.setColor(backgroundColor);
-					g.fillRect(col * cell_size, row * cell_size, cell_size,
-							cell_size);
-				}
-			}
+		/*
+		 * write the cells being repainted into the image and draw them scaled
+		 * by CELL_SIZE. Only the clip is done, so scrolled out parts of a big
+		 * colony cost nothing. The cells come from the colony's view, the
+		 * generation it last showed, so painting never waits for a step.
+		 * Zoomed out, the image holds a pixel per block of cells instead.
+		 */
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		int size = level > 0 ? 1 : cell_size; // pixels per cell or block
+		int x = clip.x / size, y = clip.y / size;
+		int width = (clip.x + clip.width + size - 1) / size - x;
+		int height = (clip.y + clip.height + size - 1) / size - y;
+		ColonyView view = colony.getView();
+		synchronized (view) { // a whole generation, not one being copied
+			renderer.update(view, level, x, y, width, height, cellColor,
+					backgroundColor);
+		}
+		renderer.draw(g, x, y, width, height, size);
 
 		if (currentRect != null) { // draw rectangle if necessary
 			g.setXORMode(cellColor); // Color of line varies
@@ -91,6 +103,34 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 			g.drawRect(rectToDraw.x, rectToDraw.y, rectToDraw.width - 1,
 					rectToDraw.height - 1);
 		}
+		colony.getMetrics().rendered(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the cell at the given pixel, along either axis
+	 */
+	int toCells(int pixels) {
+		return level > 0 ? pixels << level : pixels / cell_size;
+	}
+
+	/**
+	 * @return the pixel the given cell is drawn at, along either axis
+	 */
+	int toPixels(int cells) {
+		return level > 0 ? cells >> level : cells * cell_size;
+	}
+
+	/**
+	 * @return the pixels needed to show the given number of cells
+	 */
+	private int extent(int cells) {
+		return level > 0 ? DensityPyramid.blocks(cells, level) : cells
+				* cell_size;
+	}
+
+	private Dimension colonySize() {
+		return new Dimension(extent(colony.getWidth()),
+				extent(colony.getHeight()));
 	}
 
 	/**
@@ -172,11 +212,11 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 
 			} else { // eradicate/populate square under pointer
 				if (toolbar.getSelectedButton().equals("eradicate"))
-					colony.eradicate(e.getX() / cell_size,
-							e.getY() / cell_size, 1, 1, toolbar.getDensity());
+					colony.eradicate(toCells(e.getX()), toCells(e.getY()), 1,
+							1, toolbar.getDensity());
 				else
-					colony.populate(e.getX() / cell_size, e.getY() / cell_size,
-							1, 1, toolbar.getDensity());
+					colony.populate(toCells(e.getX()), toCells(e.getY()), 1,
+							1, toolbar.getDensity());
 			}
 			repaint();
 		}
@@ -188,11 +228,11 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 			else {
 				// eradicate/populate area under pointer
 				if (toolbar.getSelectedButton().equals("eradicate"))
-					colony.eradicate(e.getX() / cell_size,
-							e.getY() / cell_size, 1, 1, toolbar.getDensity());
+					colony.eradicate(toCells(e.getX()), toCells(e.getY()), 1,
+							1, toolbar.getDensity());
 				else
-					colony.populate(e.getX() / cell_size, e.getY() / cell_size,
-							1, 1, toolbar.getDensity());
+					colony.populate(toCells(e.getX()), toCells(e.getY()), 1,
+							1, toolbar.getDensity());
 			}
 		}
 
@@ -200,14 +240,16 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 			if (rectToDraw != null) { // if rectangle exists
 				// eradicate/populate the area in the rectangle
 				if (toolbar.getSelectedButton().equals("eradicate"))
-					colony.eradicate(rectToDraw.x / cell_size, rectToDraw.y
-							/ cell_size, rectToDraw.width / cell_size + 1,
-							rectToDraw.height / cell_size + 1,
+					colony.eradicate(toCells(rectToDraw.x),
+							toCells(rectToDraw.y),
+							toCells(rectToDraw.width) + 1,
+							toCells(rectToDraw.height) + 1,
 							toolbar.getDensity());
 				else
-					colony.populate(rectToDraw.x / cell_size, rectToDraw.y
-							/ cell_size, rectToDraw.width / cell_size + 1,
-							rectToDraw.height / cell_size + 1,
+					colony.populate(toCells(rectToDraw.x),
+							toCells(rectToDraw.y),
+							toCells(rectToDraw.width) + 1,
+							toCells(rectToDraw.height) + 1,
 							toolbar.getDensity());
 			}
 			currentRect = null;
@@ -222,8 +264,8 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 			int x = e.getX();
 			int y = e.getY();
 			currentRect.setSize(x - currentRect.x, y - currentRect.y);
-			updateDrawableRect(colony.getWidth() * cell_size,
-					colony.getHeight() * cell_size);
+			updateDrawableRect(extent(colony.getWidth()),
+					extent(colony.getHeight()));
 			Rectangle totalRepaint = rectToDraw.union(previousRectDrawn);
 			repaint(totalRepaint.x, totalRepaint.y, totalRepaint.width,
 					totalRepaint.height);
@@ -261,8 +303,8 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 
 						// Loop them through
 						for (File file : files) {
-							if (file != null) {
-								colony.load(LifeFileReader.load(file));
+							if (file != null) { // read in the background
+								FileTask.load(ColonyPanel.this, colony, file);
 								break; // leave the loop
 							}
 						}
@@ -279,31 +321,58 @@ public class ColonyPanel extends JPanel implements ColonyChangeListener {
 
 	/** sets the cell size */
 	public void setCellSize(int size) {
+		setScale(size, 0);
+	}
+
+	/**
+	 * Sets the cell size, or zooms out so each pixel shows 2^level by 2^level
+	 * cells if the level is above 0.
+	 */
+	public void setScale(int size, int level) {
 		cell_size = size;
-		setPreferredSize(new Dimension(colony.getWidth() * cell_size,
-				colony.getHeight() * cell_size));
+		this.level = level;
+		setPreferredSize(colonySize());
 		repaint();
 		revalidate();
 	}
 
+	public int getZoomLevel() {
+		return level;
+	}
+
 	@Override
 	/**
-	 * repaints when colony advances.
+	 * repaints the parts of the colony that changed and can be seen.
 	 */
-	public void colonyAdvanced(Colony colony) {
-		repaint();
+	public void colonyAdvanced(ColonyEvent e) {
+		List<Rectangle> regions = e.getChangedRegions();
+		Rectangle visible = getVisibleRect();
+		if (regions == null || randomForeground) { // every cell is redrawn
+			repaint(visible);
+			return;
+		}
+		for (Rectangle r : regions) {
+			int x = toPixels(r.x), y = toPixels(r.y);
+			Rectangle pixels = new Rectangle(x, y, extent(r.x + r.width) - x,
+					extent(r.y + r.height) - y).intersection(visible);
+			if (!pixels.isEmpty())
+				repaint(pixels);
+		}
 	}
 
 	@Override
-	public void colonyChanged(Colony colony) {
+	public void colonyChanged(ColonyEvent e) {
 		// reset the size
-		setPreferredSize(new Dimension(colony.getWidth() * cell_size,
-				colony.getHeight() * cell_size));
+		setPreferredSize(colonySize());
 		repaint();
 		revalidate(); // this will show scroll bars if necessary
 	}
 
 	@Override
-	public void simulationToggled() {
+	public void simulationToggled(ColonyEvent e) {
+	}
+
+	@Override
+	public void cycleDetected(ColonyEvent e) {
 	}
 }
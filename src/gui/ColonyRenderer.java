@@ -0,0 +1,142 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.LongBuffer;
+
+import logic.ColonyView;
+import logic.DensityPyramid;
+
+/**
+ * Draws a colony's view through the pixels of an image. Each cell is one pixel of
+ * the image's int[] raster, written directly, and the image is scaled up to
+ * the cell size by a single drawImage instead of a fillRect per cell.
+ * <p>
+ * Zoomed out, each pixel is a block of 2^level by 2^level cells, shaded by
+ * how many of them are alive. The counts come from the colony's density
+ * pyramid, so a frame costs the same however many cells a pixel covers.
+ * <p>
+ * The view's lock should be held while updating, so the image shows one
+ * generation.
+ *
+ */
+public class ColonyRenderer {
+
+	private BufferedImage image;
+	private int[] pixels; // the image's raster, one int per cell
+	private long[] words = new long[0]; // one row of a packed engine
+	private int[] counts = new int[0]; // the blocks drawn, zoomed out
+	private int[] shades = new int[256]; // from the background to the cells
+
+	/**
+	 * Writes the cells in the given rectangle, in cells, into the image. The
+	 * image is resized first if the colony's size changed.
+	 */
+	public void update(ColonyView view, int x, int y, int width, int height,
+			Color cellColor, Color backgroundColor) {
+		int w = view.getWidth(), h = view.getHeight();
+		resize(w, h);
+
+		// clip to the colony
+		int right = Math.min(x + width, w), bottom = Math.min(y + height, h);
+		x = Math.max(x, 0);
+		y = Math.max(y, 0);
+		int alive = cellColor.getRGB(), dead = backgroundColor.getRGB();
+
+		if (words.length < view.getWordsPerRow()) // read whole words at a time
+			words = new long[view.getWordsPerRow()];
+		LongBuffer buffer = LongBuffer.wrap(words);
+		for (int row = y; row < bottom; row++) {
+			buffer.clear();
+			view.getRows(row, 1, buffer);
+			int offset = row * w;
+			for (int col = x; col < right; col++)
+				pixels[offset + col] = (words[col >>> 6] >>> (col & 63) & 1) != 0 ? alive
+						: dead;
+		}
+	}
+
+	/**
+	 * Writes the given rectangle, in blocks of 2^level by 2^level cells, into
+	 * the image, which then holds one pixel per block. Level 0 is the same as
+	 * update() without a level.
+	 */
+	public void update(ColonyView view, int level, int x, int y, int width,
+			int height, Color cellColor, Color backgroundColor) {
+		if (level == 0) {
+			update(view, x, y, width, height, cellColor, backgroundColor);
+			return;
+		}
+		int w = DensityPyramid.blocks(view.getWidth(), level);
+		int h = DensityPyramid.blocks(view.getHeight(), level);
+		resize(w, h);
+
+		int right = Math.min(x + width, w), bottom = Math.min(y + height, h);
+		x = Math.max(x, 0);
+		y = Math.max(y, 0);
+		if (right <= x || bottom <= y)
+			return;
+		int span = right - x;
+		if (counts.length < span * (bottom - y))
+			counts = new int[span * (bottom - y)];
+		view.getDensity(level, x, y, span, bottom - y, counts);
+
+		// any live cell shows, and a full block is the cell color
+		for (int i = 0; i < shades.length; i++)
+			shades[i] = blend(backgroundColor, cellColor, i / 255.0);
+		long area = 1L << 2 * level;
+		for (int row = y; row < bottom; row++) {
+			int offset = row * w, from = (row - y) * span - x;
+			for (int col = x; col < right; col++) {
+				int count = counts[from + col];
+				pixels[offset + col] = count == 0 ? shades[0] : shades[64 + (int) (191
+						* count / area)];
+			}
+		}
+	}
+
+	private static int blend(Color from, Color to, double t) {
+		int r = (int) (from.getRed() + (to.getRed() - from.getRed()) * t);
+		int g = (int) (from.getGreen() + (to.getGreen() - from.getGreen()) * t);
+		int b = (int) (from.getBlue() + (to.getBlue() - from.getBlue()) * t);
+		return r << 16 | g << 8 | b;
+	}
+
+	/**
+	 * Makes a new image if the size changed.
+	 */
+	private void resize(int w, int h) {
+		if (image == null || image.getWidth() != Math.max(1, w)
+				|| image.getHeight() != Math.max(1, h)) {
+			image = new BufferedImage(Math.max(1, w), Math.max(1, h),
+					BufferedImage.TYPE_INT_RGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+					.getData();
+		}
+	}
+
+	/**
+	 * Draws the given rectangle of cells, scaled up by the cell size, at the
+	 * matching place on the graphics.
+	 */
+	public void draw(Graphics g, int x, int y, int width, int height,
+			int cellSize) {
+		if (image == null)
+			return;
+		int right = Math.min(x + width, image.getWidth());
+		int bottom = Math.min(y + height, image.getHeight());
+		x = Math.max(x, 0);
+		y = Math.max(y, 0);
+		if (right <= x || bottom <= y)
+			return;
+		if (g instanceof Graphics2D) // every cell a sharp square
+			((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g.drawImage(image, x * cellSize, y * cellSize, right * cellSize,
+				bottom * cellSize, x, y, right, bottom, null);
+	}
+}
@@ -0,0 +1,270 @@
+package gui;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import logic.Colony;
+import logic.PatternFile;
+import logic.ProgressListener;
+import logic.Rule;
+import logic.SnapshotFile;
+
+/**
+ * Reads or writes a file on a background thread so the window keeps
+ * responding. If it takes more than a moment, a dialog shows how much of the
+ * file has been read and lets the task be cancelled, which interrupts the
+ * thread. Whatever the task produces is handed over on the event thread once
+ * it is complete.
+ *
+ */
+public abstract class FileTask implements ProgressListener, ActionListener {
+
+	/** how long a task runs before its progress is shown, in milliseconds */
+	public static final int POPUP_DELAY = 300;
+
+	/* one file at a time, in the order asked for */
+	private static final ExecutorService files = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "File task");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private Component parent;
+	private String message;
+	private volatile long done, total; // bytes, set by the background thread
+	private boolean finished, cancelled; // on the event thread only
+	private Future<?> future;
+	private Timer timer; // shows the dialog, then keeps it up to date
+	private JDialog dialog;
+	private JProgressBar bar = new JProgressBar(0, 1000);
+	private JButton cancel = new JButton("Cancel");
+
+	/**
+	 * @param message
+	 *            what the dialog says is being done
+	 */
+	public FileTask(Component parent, String message) {
+		this.parent = parent;
+		this.message = message;
+	}
+
+	/**
+	 * Does the reading or writing. Called on the background thread; should
+	 * stop with an InterruptedIOException if the thread is interrupted.
+	 */
+	protected abstract void work() throws IOException;
+
+	/**
+	 * Called on the event thread once work() has finished, unless the task
+	 * was cancelled.
+	 */
+	protected abstract void succeeded();
+
+	/**
+	 * Called on the event thread if work() failed, unless the task was
+	 * cancelled.
+	 */
+	protected abstract void failed(IOException e);
+
+	/**
+	 * Queues the task. Must be called on the event thread.
+	 */
+	public void start() {
+		timer = new Timer(100, this);
+		timer.setInitialDelay(POPUP_DELAY);
+		timer.start();
+		future = files.submit(new Runnable() {
+			@Override
+			public void run() {
+				IOException error = null;
+				try {
+					work();
+				} catch (IOException e) {
+					error = e;
+				} catch (RuntimeException e) { // a file that breaks a reader
+					error = new IOException(e);
+				}
+				final IOException e = error;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						finish(e);
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public void progress(long done, long total) {
+		this.done = done;
+		this.total = total;
+	}
+
+	/**
+	 * Stops the task. Nothing it has produced is used.
+	 */
+	public void cancel() {
+		if (finished)
+			return;
+		cancelled = true;
+		future.cancel(true);
+		close();
+	}
+
+	private void finish(IOException e) {
+		if (finished)
+			return;
+		close();
+		if (cancelled || e instanceof InterruptedIOException
+				|| e instanceof ClosedByInterruptException)
+			return;
+		if (e == null)
+			succeeded();
+		else
+			failed(e);
+	}
+
+	private void close() {
+		finished = true;
+		timer.stop();
+		if (dialog != null)
+			dialog.dispose();
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (e.getSource() == cancel) {
+			cancel();
+			return;
+		}
+		if (finished)
+			return;
+		if (dialog == null)
+			showDialog();
+		long total = this.total, done = this.done;
+		bar.setIndeterminate(total <= 0);
+		if (total > 0)
+			bar.setValue((int) (1000 * Math.min(done, total) / total));
+	}
+
+	private void showDialog() {
+		dialog = new JDialog(SwingUtilities.getWindowAncestor(parent),
+				"Please Wait");
+		JPanel panel = new JPanel(new BorderLayout(0, 5));
+		panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+		panel.add(new JLabel(message), BorderLayout.PAGE_START);
+		panel.add(bar, BorderLayout.CENTER);
+		JPanel buttons = new JPanel();
+		buttons.add(cancel);
+		panel.add(buttons, BorderLayout.PAGE_END);
+		cancel.addActionListener(this);
+		dialog.setContentPane(panel);
+		dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+		dialog.pack();
+		dialog.setLocationRelativeTo(parent);
+		dialog.setVisible(true);
+	}
+
+	/**
+	 * Loads a file into the colony, with its rule, once it has been read.
+	 * Snapshots are only mapped here and go to the colony as they are,
+	 * without being made into a grid.
+	 */
+	public static FileTask load(final Component parent, final Colony colony,
+			final File f) {
+		FileTask task = new FileTask(parent, "Loading " + f.getName()) {
+			private boolean[][] grid;
+			private SnapshotFile snapshot;
+			private Rule rule;
+
+			@Override
+			protected void work() throws IOException {
+				if (f.getName().endsWith(SnapshotFile.EXTENSION)) {
+					snapshot = SnapshotFile.open(f);
+					rule = PatternFile.toRule(snapshot.getRule());
+					progress(f.length(), f.length());
+					return;
+				}
+				grid = LifeFileReader.load(f, this);
+				rule = LifeFileReader.loadRule(f);
+			}
+
+			@Override
+			protected void succeeded() {
+				colony.stop();
+				if (snapshot != null)
+					colony.load(snapshot, rule);
+				else
+					colony.load(grid, rule);
+			}
+
+			@Override
+			protected void failed(IOException e) {
+				JOptionPane.showMessageDialog(parent,
+						"Unable to load the Colony.");
+				e.printStackTrace();
+			}
+		};
+		task.start();
+		return task;
+	}
+
+	/**
+	 * Saves the colony as it is once any step in progress is done.
+	 */
+	public static FileTask save(final Component parent, final Colony colony,
+			final File f) {
+		FileTask task = new FileTask(parent, "Saving " + f.getName()) {
+			@Override
+			protected void work() throws IOException {
+				boolean[][] grid;
+				Rule rule;
+				long generation;
+				synchronized (colony) { // here, so only this thread waits for a step
+					grid = colony.getGrid(); // a copy
+					rule = colony.getRule();
+					generation = colony.getGeneration();
+				}
+				LifeFileReader.save(grid, rule, generation, f);
+			}
+
+			@Override
+			protected void succeeded() {
+			}
+
+			@Override
+			protected void failed(IOException e) {
+				JOptionPane.showMessageDialog(parent,
+						"Unable to save the Colony.");
+				e.printStackTrace();
+			}
+		};
+		task.start();
+		return task;
+	}
+}
@@ -1,22 +1,21 @@
 package gui;
 
 import java.awt.Component;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
 import java.util.Locale;
-import java.util.Scanner;
 
 import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileFilter;
 
 import logic.Colony;
+import logic.PatternCache;
+import logic.PatternFile;
+import logic.PatternWriter;
+import logic.ProgressListener;
+import logic.Rule;
+import logic.SnapshotFile;
 
 /**
  * Can set up a JFileChooser and then convert a text file to a grid.
@@ -24,9 +23,12 @@ import logic.Colony;
 public class LifeFileReader {
 
 	private JFileChooser fileChooser;
-	private File file;
+	private Rule rule; // of the last file loaded
 	private Component parent; // needed for JFileChooser
 
+	/** the files opened or dropped lately, so they can be again at once */
+	private static final PatternCache cache = new PatternCache();
+
 	public LifeFileReader(Component f) {
 		parent = f;
 		fileChooser = new JFileChooser();
@@ -34,266 +36,174 @@ public class LifeFileReader {
 	}
 
 	public boolean[][] load() throws IOException {
-		// Show the JFileChoose dialog
-		int returnVal = fileChooser.showOpenDialog(parent);
-		if (returnVal == JFileChooser.APPROVE_OPTION) { // if file selected
-			return load(fileChooser.getSelectedFile()); // load it
+		File f = chooseOpenFile();
+		if (f != null) { // if file selected
+			boolean[][] grid = load(f); // load it
+			rule = loadRule(f);
+			return grid;
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Shows the open dialog.
+	 * 
+	 * @return the file chosen, or null if the user cancelled
+	 */
+	public File chooseOpenFile() {
+		// Show the JFileChoose dialog
+		int returnVal = fileChooser.showOpenDialog(parent);
+		if (returnVal == JFileChooser.APPROVE_OPTION)
+			return fileChooser.getSelectedFile();
+		return null;
+	}
+
 	class LifeFilter extends FileFilter {
 		public boolean accept(File f) {
 			if (f.isDirectory()) {
 				return true;
 			}
-			if (f.getName().endsWith("lif") || f.getName().endsWith("col")
-					|| f.getName().endsWith("txt")) {
+			if (f.getName().endsWith("lif") || f.getName().endsWith("rle")
+					|| f.getName().endsWith("col")
+					|| f.getName().endsWith("txt")
+					|| f.getName().endsWith("lifb")) {
 				return true;
 			} else
 				return false;
 		}
 
 		public String getDescription() {
-			return ".lif, .col, .txt";
+			return ".lif, .rle, .col, .txt, .lifb";
 		}
 	}
 
 	/**
-	 * called to load any type of file.
+	 * called to load any type of file. Files loaded before are not read
+	 * again unless they have changed.
+	 * 
+	 * @return the grid, which may be shared with other callers: load it into
+	 *         a colony, don't write to it
 	 */
 	public static boolean[][] load(File f) throws IOException {
-		if (f.getName().endsWith(".lif"))
-			return expandGrid(loadLif(f), 50); // default expand grid files
-		else if (f.getName().endsWith(".col") || f.getName().endsWith(".txt"))
-			return loadCol(f);
-		else
-			return null;
+		return cache.load(f);
 	}
 
 	/**
-	 * Generates a grid based on a text file. The file should look just like a
-	 * grid, with '.' representing dead cells and '*' representing live cells.
-	 * 
-	 * @param file
-	 *            a .col file.
-	 * @return a boolean array representing the grid
-	 * @throws IOException
+	 * Loads any type of file like load(File), telling the listener how much
+	 * has been read.
 	 */
-	public static boolean[][] loadCol(File file) throws IOException {
-		// Buffer the content for faster reading
-		BufferedReader reader = new BufferedReader(new FileReader(file));
-
-		// number of columns in the length of the first line
-		String line = reader.readLine();
-		int numColumns = line.length();
+	public static boolean[][] load(File f, ProgressListener progress)
+			throws IOException {
+		return cache.load(f, progress);
+	}
 
-		// number of rows is the number of lines in the file
-		int numRows = countLines(new BufferedInputStream(new FileInputStream(
-				file))) + 1; // +1 because count lines counts '\n' and there
-								// won't be one at the end of the file
+	/**
+	 * @return the rule of the last file loaded from the dialog, or null if
+	 *         it didn't say
+	 */
+	public Rule getRule() {
+		return rule;
+	}
 
-		boolean[][] grid = new boolean[numRows][numColumns]; // set up grid
+	/**
+	 * @return the rule the file was written for, or null if it doesn't say
+	 */
+	public static Rule loadRule(File f) throws IOException {
+		return cache.loadRule(f);
+	}
 
-		int row = 0;
-		while (line != null && row < grid.length) { // loop through each line
-			// read characters in this line
-			for (int col = 0; col < grid[0].length; col++) {
-				if (col < line.length() && line.charAt(col) == '*')
-					grid[row][col] = true;
-				else
-					grid[row][col] = false;
-			}
-			row++;
-			line = reader.readLine();
-		}
-		reader.close();
-		return grid;
+	/**
+	 * Generates a grid based on a .col file.
+	 */
+	public static boolean[][] loadCol(File file) throws IOException {
+		return PatternFile.loadCol(file);
 	}
 
 	/**
-	 * Counts the number of lines in a text file (found on StackOverflow)
-	 * 
-	 * @author martinus
+	 * Counts the number of lines in a text file.
 	 */
 	public static int countLines(InputStream is) throws IOException {
-		try {
-			byte[] c = new byte[1024];
-			int count = 0;
-			int readChars = 0;
-			while ((readChars = is.read(c)) != -1) {
-				for (int i = 0; i < readChars; ++i) {
-					if (c[i] == '\n')
-						++count;
-				}
-			}
-			return count;
-		} finally {
-			is.close();
-		}
+		return PatternFile.countLines(is);
 	}
 
 	/**
-	 * Saves the grid to a file.
+	 * Saves the grid to a file, cropped to its live cells. .lif and .rle
+	 * files are saved as RLE, .lifb as a binary snapshot, anything else as
+	 * .col.
 	 * 
 	 * @param grid
 	 *            the grid to be saved.
 	 * @throws IOException
 	 */
 	public void saveGrid(boolean[][] grid) throws IOException {
-		// show the file chooser
-		int returnVal = fileChooser.showSaveDialog(parent);
-		if (returnVal == JFileChooser.APPROVE_OPTION) { // if file selected
-			file = fileChooser.getSelectedFile(); // get the file
-			// add .col extension if doesn't already have it
-			if (!file.getName().endsWith(".col"))
-				file = new File(file.getAbsolutePath() + ".col");
-		} else {
-			return;
-		}
-
-		PrintWriter fileout = new PrintWriter(new FileWriter(file));
-		// loop through rows and columns
-		for (int row = 0; row < grid.length; row++) {
-			for (int col = 0; col < grid[0].length; col++) {
-				// print '*' for live, '.' for dead
-				fileout.print(grid[row][col] ? '*' : '.');
-			}
-			// don't line break the last line
-			if (row < grid.length - 1)
-				fileout.println();
-		}
-		fileout.close();
+		File f = chooseSaveFile();
+		if (f != null)
+			save(grid, null, 0, f);
 	}
 
 	/* overloaded to accept a colony */
 	public void saveColony(Colony c) throws IOException {
-		saveGrid(c.getGrid());
+		File f = chooseSaveFile();
+		if (f == null)
+			return;
+		if (f.getName().endsWith(SnapshotFile.EXTENSION)) // keeps the size
+			SnapshotFile.save(c.getEngine(), c.getRule().toString(),
+					c.getGeneration(), f);
+		else
+			PatternWriter.save(c.getGrid(), c.getRule().toString(), f);
+		cache.forget(f);
 	}
 
 	/**
-	 * Reads standard .lif files
+	 * Saves the grid like saveGrid(), to the given file.
 	 * 
-	 * @param f
-	 * @return
-	 * @throws IOException
+	 * @param rule
+	 *            the rule, or null for B3/S23
+	 * @param generation
+	 *            the generation, kept by snapshots
 	 */
-	public static boolean[][] loadLif(File f) throws IOException {
-		// Buffer the content for faster reading
-		Scanner s = new Scanner(new BufferedReader(new FileReader(f)));
-		boolean[][] grid;
-
-		int width = 0, height = 0;
-
-		// loop lines until it reaches info line (x = 5, y = 2, ...)
-		while (s.hasNextLine()) {
-			String line = s.nextLine();
-			if (line.charAt(0) == '#') { // ignore the commented lines
-				System.out.println(line);
-			} else { // once it has reached info line
-				// create scanner for reading line (and remove spaces)
-				Scanner inf_reader = new Scanner(line.replaceAll(" ", ""));
-				inf_reader.useDelimiter(","); // info separated by commas
-
-				// get width as a string by finding the '=' sign
-				String x_string = inf_reader.next();
-				x_string = x_string.substring(x_string.indexOf('=') + 1);
-
-				// get height as a string by finding the '=' sign
-				String y_string = inf_reader.next();
-				y_string = y_string.substring(y_string.indexOf('=') + 1);
-
-				// convert the strings to integers
-				width = Integer.parseInt(x_string);
-				height = Integer.parseInt(y_string);
-				break; // stop looping through lines
-			}
-		}
-
-		grid = new boolean[height][width];
-
-		// '$' represents a new line in .lif format
-		s.useDelimiter("\\$");
-		int row = 0;
-		while (row < grid.length && s.hasNext()) {
-			String line = s.next();
-			int col = 0;
-			// loop through every character of the line
-			for (int i = 0; i < line.length(); i++) {
-				switch (line.charAt(i)) {
-				case 'o':
-					grid[row][col] = true;
-					col++; // move onto next column
-					break;
-				case 'b':
-					grid[row][col] = false;
-					col++; // move onto next column
-					break;
-				case '\n':
-					break; // ignore line breaks
-				case '!':
-					break; // stop at end of file
-				default: // if it's a new run
-					// get the numeric part of the string
-					String col_string = getIntInString(i, line);
-					int run = Integer.parseInt(col_string);
-
-					// if the run is a run of new lines
-					if (i + col_string.length() + 1 > line.length()) {
-						row += run - 1; // increment the row accordingly
-					} else {// check what to fill the run with
-						boolean dead_alive = line.charAt(i + 1) == 'o';
-
-						// fill the run
-						for (int x = 0; x < run; x++) {
-							grid[row][col] = dead_alive;
-							col++;
-						}
-
-						// increment original character index
-						// because it should skip these numbers
-						i += col_string.length();
-					}
-					break;
-				}
-			}
-			row++; // move onto next row
-		}
-		return grid;
+	public static void save(boolean[][] grid, Rule rule, long generation,
+			File f) throws IOException {
+		String name = rule == null ? null : rule.toString();
+		if (f.getName().endsWith(SnapshotFile.EXTENSION))
+			SnapshotFile.save(grid, name, generation, f);
+		else
+			PatternWriter.save(grid, name, f); // RLE for .lif/.rle
+		cache.forget(f); // in case the time and length look the same
 	}
 
 	/**
-	 * Expands a grid on all 4 sides by the given size.
+	 * Shows the save dialog, adding .col to names without an extension.
+	 * 
+	 * @return the file chosen, or null if the user cancelled
 	 */
-	public static boolean[][] expandGrid(boolean[][] grid, int size) {
-		boolean[][] new_grid = new boolean[grid.length + size * 2][grid[0].length
-				+ size * 2];
+	public File chooseSaveFile() {
+		// show the file chooser
+		int returnVal = fileChooser.showSaveDialog(parent);
+		if (returnVal != JFileChooser.APPROVE_OPTION) // if no file selected
+			return null;
+		File file = fileChooser.getSelectedFile(); // get the file
+		// add .col extension if doesn't already have one
+		String name = file.getName();
+		if (!name.endsWith(".col") && !name.endsWith(".lif")
+				&& !name.endsWith(".rle")
+				&& !name.endsWith(SnapshotFile.EXTENSION))
+			file = new File(file.getAbsolutePath() + ".col");
+		return file;
+	}
 
-		for (int row = 0; row < grid.length; row++)
-			for (int col = 0; col < grid[0].length; col++) {
-				new_grid[size + row][size + col] = grid[row][col];
-			}
-		return new_grid;
+	/**
+	 * Reads standard .lif files
+	 */
+	public static boolean[][] loadLif(File f) throws IOException {
+		return PatternFile.loadLif(f);
 	}
 
 	/**
-	 * Returns the sequence of integers found at the beginning of a string. For
-	 * example, 104fjios3 would return 104.
-	 * 
-	 * @param line
-	 * @return a string representation of the integer
+	 * Expands a grid on all 4 sides by the given size.
 	 */
-	private static String getIntInString(int start, String line) {
-		String num_string = "";
-		// loop through the string
-		for (int i = start; i < line.length(); i++) {
-			// if the character is digit
-			if (Character.isDigit(line.charAt(i))) {
-				num_string += line.charAt(i); // add it to the num_string
-			} else
-				break;
-		}
-		return num_string;
+	public static boolean[][] expandGrid(boolean[][] grid, int size) {
+		return PatternFile.expandGrid(grid, size);
 	}
-}
\ No newline at end of file
+}
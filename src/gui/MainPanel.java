@@ -4,6 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.io.IOException;
 
+import javax.management.JMException;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -12,7 +13,8 @@ import javax.swing.UIManager;
 import logic.Colony;
 
 /**
- * Contains the ColonyPanel,Toolbar, and MenuBar. Has the main method.
+ * Contains the ColonyPanel, Minimap, Toolbar, and MenuBar. Has the main
+ * method.
  * 
  */
 public class MainPanel extends JPanel {
@@ -20,6 +22,7 @@ public class MainPanel extends JPanel {
 	private Colony colony;
 	private ColonyPanel colonyPanel;
 	private Toolbar toolbar;
+	private Minimap minimap;
 
 	public MainPanel(Colony c) {
 		super(new BorderLayout());
@@ -33,9 +36,16 @@ public class MainPanel extends JPanel {
 		colony.addColonyChangeListener(colonyPanel);
 		toolbar.cp = colonyPanel;
 
+		JScrollPane scrollPane = new JScrollPane(colonyPanel);
+		minimap = new Minimap(colony, colonyPanel, scrollPane.getViewport());
+		colony.addColonyChangeListener(minimap);
+		JPanel side = new JPanel(new BorderLayout()); // keeps the minimap square
+		side.add(minimap, BorderLayout.PAGE_START);
+
 		// add them to this panel
 		add(toolbar, BorderLayout.PAGE_START);
-		add(new JScrollPane(colonyPanel), BorderLayout.CENTER);
+		add(scrollPane, BorderLayout.CENTER);
+		add(side, BorderLayout.LINE_END);
 	}
 
 	public static void main(String[] args) {
@@ -47,6 +57,11 @@ public class MainPanel extends JPanel {
 		}
 
 		Colony colony = new Colony(0.2); // default colony
+		try { // for JConsole
+			colony.getMetrics().register();
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
 		MainPanel p = new MainPanel(colony);
 		f.setContentPane(p);
 		f.setJMenuBar(new MenuBar(colony, f, p.colonyPanel)); // set the menu
@@ -3,20 +3,26 @@ package gui;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.io.IOException;
+import java.io.File;
 
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
-import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.KeyStroke;
 
 import logic.Colony;
+import logic.ColonyEvent;
+import logic.Engines;
+import logic.Rule;
 
 /** The menu bar for the program */
-public class MenuBar extends JMenuBar implements ActionListener {
+public class MenuBar extends JMenuBar implements ActionListener,
+		ColonyChangeListener {
 
 	/* file menu items and info */
 	private JMenu file;
@@ -31,10 +37,22 @@ public class MenuBar extends JMenuBar implements ActionListener {
 	KeyStroke.getKeyStroke(KeyEvent.VK_N, ActionEvent.CTRL_MASK),
 			KeyStroke.getKeyStroke(KeyEvent.VK_O, ActionEvent.CTRL_MASK),
 			KeyStroke.getKeyStroke(KeyEvent.VK_S, ActionEvent.CTRL_MASK), };
+	private JMenuItem browse = new JMenuItem("Browse Patterns...");
 
 	/* view menu items and info */
 	private JMenu view;
 	private JMenuItem coloring = new JMenuItem("Coloring...");
+	private JMenuItem back = new JMenuItem("Step Back");
+	private JCheckBoxMenuItem stopOnCycle = new JCheckBoxMenuItem(
+			"Stop When Settled");
+	private JCheckBoxMenuItem toroidal = new JCheckBoxMenuItem(
+			"Wrap Around Edges");
+	private JMenu engine = new JMenu("Engine");
+	private static final String ENGINE_PREFIX = "Engine:"; // action commands
+	private JMenu rule = new JMenu("Rule");
+	private ButtonGroup rules = new ButtonGroup();
+	private JRadioButtonMenuItem[] ruleItems = new JRadioButtonMenuItem[Rule.NAMES.length];
+	private static final String RULE_PREFIX = "Rule:";
 
 	public static String SUFFIX = "32.png"; // for ImageIcon selection
 	private LifeFileReader userFileDialog; // used to open/save files
@@ -43,6 +61,7 @@ public class MenuBar extends JMenuBar implements ActionListener {
 
 	private JFrame frame;
 	private ColorsDialog colorsDialog;
+	private PatternBrowser patternBrowser; // made when first asked for
 
 	public MenuBar(Colony c, JFrame f, ColonyPanel cp) {
 		super();
@@ -64,6 +83,13 @@ public class MenuBar extends JMenuBar implements ActionListener {
 			items[i].setAccelerator(accelerators[i]);
 			file.add(items[i]);
 		}
+		file.add(browse);
+		browse.setActionCommand("Browse");
+		browse.getAccessibleContext().setAccessibleDescription(
+				"Pick a colony from the pattern library.");
+		browse.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O,
+				ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		browse.addActionListener(this);
 		add(file);
 
 		// set up view menu
@@ -72,40 +98,117 @@ public class MenuBar extends JMenuBar implements ActionListener {
 		view.add(coloring);
 		coloring.setActionCommand("Color");
 		coloring.addActionListener(this);
+		view.add(back);
+		back.setActionCommand("Back");
+		back.getAccessibleContext().setAccessibleDescription(
+				"Go back to the previous generation.");
+		back.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_B,
+				ActionEvent.CTRL_MASK));
+		back.addActionListener(this);
+		view.add(stopOnCycle);
+		stopOnCycle.setActionCommand("StopOnCycle");
+		stopOnCycle.getAccessibleContext().setAccessibleDescription(
+				"Stop the simulation once the colony starts repeating.");
+		stopOnCycle.addActionListener(this);
+		view.add(toroidal);
+		toroidal.setActionCommand("Toroidal");
+		toroidal.getAccessibleContext().setAccessibleDescription(
+				"Join each edge of the colony to the opposite one.");
+		toroidal.addActionListener(this);
+		view.add(engine);
+		ButtonGroup engines = new ButtonGroup();
+		for (int i = 0; i < Engines.NAMES.length; i++) { // one per engine
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(
+					Engines.NAMES[i], i == 0);
+			item.setActionCommand(ENGINE_PREFIX + Engines.NAMES[i]);
+			item.addActionListener(this);
+			engines.add(item);
+			engine.add(item);
+		}
+		view.add(rule);
+		for (int i = 0; i < Rule.NAMES.length; i++) { // one per named rule
+			ruleItems[i] = new JRadioButtonMenuItem(Rule.NAMES[i] + " ("
+					+ Rule.RULES[i] + ")");
+			ruleItems[i].setActionCommand(RULE_PREFIX + i);
+			ruleItems[i].addActionListener(this);
+			rules.add(ruleItems[i]);
+			rule.add(ruleItems[i]);
+		}
+		showRule();
+		colony.addColonyChangeListener(this); // files bring their own rules
 		add(view);
 	}
 
+	/**
+	 * Selects the colony's rule in the rule menu, or nothing if it has no
+	 * name.
+	 */
+	private void showRule() {
+		rules.clearSelection();
+		for (int i = 0; i < Rule.RULES.length; i++)
+			if (Rule.RULES[i].equals(colony.getRule()))
+				ruleItems[i].setSelected(true);
+	}
+
+	@Override
+	public void colonyChanged(ColonyEvent e) {
+		showRule();
+	}
+
+	@Override
+	public void colonyAdvanced(ColonyEvent e) {
+	}
+
+	@Override
+	public void simulationToggled(ColonyEvent e) {
+	}
+
+	@Override
+	public void cycleDetected(ColonyEvent e) {
+	}
+
 	@Override
 	/**
 	 * Listens to menu item actions and takes the appropriate action.
 	 */
 	public void actionPerformed(ActionEvent e) {
-		colony.stop(); // stop the simulation
 		String cmd = e.getActionCommand();
+		if (cmd.equals(stopOnCycle.getActionCommand())) { // no need to stop
+			colony.setStopOnCycle(stopOnCycle.isSelected());
+			return;
+		}
+		if (cmd.equals(toroidal.getActionCommand())) { // as is the topology
+			colony.setToroidal(toroidal.isSelected());
+			return;
+		}
+		if (cmd.startsWith(RULE_PREFIX)) { // takes effect on the next step
+			colony.setRule(Rule.RULES[Integer.parseInt(cmd
+					.substring(RULE_PREFIX.length()))]);
+			return;
+		}
+		colony.stop(); // stop the simulation
 		if (cmd.equals(new_colony.getActionCommand())) { // new
 			new NewDialog(colony, frame);
 		} else if (cmd.equals(open.getActionCommand())) { // open
-			boolean[][] new_grid = null;
-			try { // load grid from a file dialog
-				new_grid = userFileDialog.load();
-			} catch (IOException ex) {
-				JOptionPane.showMessageDialog(this,
-						"Unable to load the Colony.");
-				ex.printStackTrace();
-			}
-			if (new_grid != null) { // if successful
-				colony.load(new_grid); // load the new grid
-			}
+			File f = userFileDialog.chooseOpenFile();
+			if (f != null) // read in the background, with its rule
+				FileTask.load(this, colony, f);
 		} else if (cmd.equals(save.getActionCommand())) { // save
-			try {
-				userFileDialog.saveColony(colony); // save colony
-			} catch (IOException e1) {
-				JOptionPane.showMessageDialog(this,
-						"Unable to save the Colony.");
-				e1.printStackTrace();
-			}
+			File f = userFileDialog.chooseSaveFile();
+			if (f != null) // written in the background
+				FileTask.save(this, colony, f);
+		} else if (cmd.equals(browse.getActionCommand())) { // library
+			if (patternBrowser == null)
+				patternBrowser = new PatternBrowser(colony, frame);
+			patternBrowser.setVisible(true);
 		} else if (cmd.equals(coloring.getActionCommand())) { // colors
 			colorsDialog.setVisible(true);
+		} else if (cmd.equals(back.getActionCommand())) { // step back
+			colony.stepBack();
+		} else if (cmd.startsWith(ENGINE_PREFIX)) { // engine
+			String name = cmd.substring(ENGINE_PREFIX.length());
+			// empty: setEngine() gives it the cells
+			colony.setEngine(Engines.create(name, new boolean[0][0]));
 		}
 	}
 
@@ -0,0 +1,132 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.MouseInputAdapter;
+
+import logic.Colony;
+import logic.ColonyEvent;
+import logic.ColonyView;
+import logic.DensityPyramid;
+
+/**
+ * An overview of the whole colony, drawn from its density pyramid at the
+ * lowest level that fits, with the part the scroll pane shows outlined.
+ * Clicking or dragging on it scrolls there.
+ *
+ */
+public class Minimap extends JPanel implements ColonyChangeListener,
+		ChangeListener {
+
+	/** the width and height of the overview, in pixels */
+	public static final int SIZE = 160;
+
+	private Colony colony;
+	private ColonyPanel colonyPanel;
+	private JViewport viewport;
+	private ColonyRenderer renderer = new ColonyRenderer();
+	private int level; // of the blocks drawn
+	private int scale = 1; // pixels per block, for small colonies
+
+	public Minimap(Colony c, ColonyPanel cp, JViewport v) {
+		super();
+		colony = c;
+		colonyPanel = cp;
+		viewport = v;
+		setPreferredSize(new Dimension(SIZE, SIZE));
+		viewport.addChangeListener(this); // scrolled or resized
+
+		MouseInputAdapter mouseListener = new MouseInputAdapter() {
+			public void mousePressed(MouseEvent e) {
+				scrollTo(e.getX(), e.getY());
+			}
+
+			public void mouseDragged(MouseEvent e) {
+				scrollTo(e.getX(), e.getY());
+			}
+		};
+		addMouseListener(mouseListener);
+		addMouseMotionListener(mouseListener);
+	}
+
+	public void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		int width, height;
+		ColonyView shown = colony.getView();
+		synchronized (shown) {
+			level = 0;
+			while (DensityPyramid.blocks(shown.getWidth(), level) > SIZE
+					|| DensityPyramid.blocks(shown.getHeight(), level) > SIZE)
+				level++;
+			width = DensityPyramid.blocks(shown.getWidth(), level);
+			height = DensityPyramid.blocks(shown.getHeight(), level);
+			renderer.update(shown, level, 0, 0, width, height,
+					colonyPanel.cellColor, colonyPanel.backgroundColor);
+		}
+		scale = Math.max(1, Math.min(SIZE / Math.max(1, width), SIZE
+				/ Math.max(1, height)));
+		renderer.draw(g, 0, 0, width, height, scale);
+
+		// outline what the scroll pane shows
+		Rectangle view = viewport.getViewRect();
+		int x = toMap(colonyPanel.toCells(view.x));
+		int y = toMap(colonyPanel.toCells(view.y));
+		int right = toMap(colonyPanel.toCells(view.x + view.width));
+		int bottom = toMap(colonyPanel.toCells(view.y + view.height));
+		g.setColor(Color.RED);
+		g.drawRect(x, y, Math.min(right, width * scale) - x - 1,
+				Math.min(bottom, height * scale) - y - 1);
+	}
+
+	/**
+	 * @return the pixel of the overview showing the given cell
+	 */
+	private int toMap(int cells) {
+		return (cells >> level) * scale;
+	}
+
+	/**
+	 * Centres the scroll pane on the cell under the given pixel.
+	 */
+	private void scrollTo(int x, int y) {
+		Rectangle view = viewport.getViewRect();
+		Dimension size = viewport.getViewSize();
+		int px = colonyPanel.toPixels((x / scale) << level) - view.width / 2;
+		int py = colonyPanel.toPixels((y / scale) << level) - view.height / 2;
+		px = Math.max(0, Math.min(px, size.width - view.width));
+		py = Math.max(0, Math.min(py, size.height - view.height));
+		viewport.setViewPosition(new Point(px, py));
+	}
+
+	@Override
+	public void stateChanged(ChangeEvent e) {
+		repaint();
+	}
+
+	@Override
+	public void colonyAdvanced(ColonyEvent e) {
+		repaint();
+	}
+
+	@Override
+	public void colonyChanged(ColonyEvent e) {
+		repaint();
+	}
+
+	@Override
+	public void simulationToggled(ColonyEvent e) {
+	}
+
+	@Override
+	public void cycleDetected(ColonyEvent e) {
+	}
+}
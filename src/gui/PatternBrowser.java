@@ -0,0 +1,302 @@
+package gui;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Frame;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.ImageIcon;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+import logic.Colony;
+import logic.PatternIndex;
+
+/**
+ * A dialog listing the patterns in a directory with their thumbnails, from
+ * the directory's pattern index. The saved index is shown straight away and
+ * brought up to date in the background.
+ */
+public class PatternBrowser extends JDialog implements ActionListener,
+		ListSelectionListener, DocumentListener {
+
+	private Colony colony;
+	private PatternIndex index;
+	private boolean refreshing; // on the event thread only
+	private List<PatternIndex.Entry> entries; // all of them, unfiltered
+	private Map<PatternIndex.Entry, PatternIndex.Entry> duplicates = new HashMap<PatternIndex.Entry, PatternIndex.Entry>();
+	private Map<PatternIndex.Entry, ImageIcon> thumbnails = new HashMap<PatternIndex.Entry, ImageIcon>();
+
+	private JTextField filter = new JTextField(20);
+	private DefaultListModel<PatternIndex.Entry> shown = new DefaultListModel<PatternIndex.Entry>();
+	private JList<PatternIndex.Entry> list = new JList<PatternIndex.Entry>(
+			shown);
+	private JTextArea details = new JTextArea(8, 30);
+	private JLabel status = new JLabel(" ");
+	private JButton folder = new JButton("Folder...");
+	private JButton open = new JButton("Open");
+
+	public PatternBrowser(Colony c, Frame f) {
+		super(f, "Pattern Library", false);
+		colony = c;
+
+		JPanel top = new JPanel(new BorderLayout(5, 0));
+		top.add(new JLabel("Filter:"), BorderLayout.LINE_START);
+		top.add(filter, BorderLayout.CENTER);
+		top.add(folder, BorderLayout.LINE_END);
+		filter.getDocument().addDocumentListener(this);
+		folder.addActionListener(this);
+
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.setCellRenderer(new DefaultListCellRenderer() {
+			@Override
+			public Component getListCellRendererComponent(JList<?> l,
+					Object value, int i, boolean selected, boolean focused) {
+				PatternIndex.Entry e = (PatternIndex.Entry) value;
+				super.getListCellRendererComponent(l, describe(e), i,
+						selected, focused);
+				setIcon(thumbnail(e));
+				return this;
+			}
+		});
+		list.addListSelectionListener(this);
+		list.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2)
+					openSelected();
+			}
+		});
+		details.setEditable(false);
+		details.setLineWrap(true);
+
+		JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
+				new JScrollPane(list), new JScrollPane(details));
+		split.setResizeWeight(1);
+
+		JPanel bottom = new JPanel(new BorderLayout(5, 0));
+		bottom.add(status, BorderLayout.CENTER);
+		bottom.add(open, BorderLayout.LINE_END);
+		open.addActionListener(this);
+		open.setEnabled(false);
+
+		setLayout(new BorderLayout(0, 5));
+		add(top, BorderLayout.PAGE_START);
+		add(split, BorderLayout.CENTER);
+		add(bottom, BorderLayout.PAGE_END);
+		setPreferredSize(new Dimension(480, 600));
+		pack();
+		setLocationRelativeTo(f);
+
+		setDirectory(new File("patterns"));
+	}
+
+	/**
+	 * Shows the patterns in another directory.
+	 */
+	public void setDirectory(File dir) {
+		index = new PatternIndex(dir);
+		index.load(); // whatever was saved, however stale
+		thumbnails.clear();
+		show(index);
+		refresh();
+	}
+
+	/**
+	 * Brings the index up to date on another thread, and shows it when
+	 * done.
+	 */
+	public void refresh() {
+		if (refreshing)
+			return;
+		refreshing = true;
+		showStatus();
+		final PatternIndex refreshed = index;
+		Thread t = new Thread("Pattern indexer") {
+			public void run() {
+				try {
+					refreshed.refresh();
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InterruptedException e) {
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						refreshing = false;
+						if (refreshed == index)
+							show(index);
+						else
+							refresh(); // the directory changed meanwhile
+					}
+				});
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	@Override
+	public void setVisible(boolean visible) {
+		if (visible && index != null)
+			refresh(); // files may have changed since it was last open
+		super.setVisible(visible);
+	}
+
+	private void show(PatternIndex index) {
+		entries = index.getEntries();
+		duplicates = index.findDuplicates();
+		thumbnails.keySet().retainAll(
+				new HashSet<PatternIndex.Entry>(entries));
+		applyFilter();
+	}
+
+	/**
+	 * Lists the entries whose path or comments hold the filter text.
+	 */
+	private void applyFilter() {
+		PatternIndex.Entry selected = list.getSelectedValue();
+		String text = filter.getText().trim().toLowerCase();
+		shown.clear();
+		for (PatternIndex.Entry e : entries) {
+			boolean match = e.getPath().toLowerCase().contains(text);
+			for (int i = 0; !match && i < e.getComments().size(); i++)
+				match = e.getComments().get(i).toLowerCase().contains(text);
+			if (match)
+				shown.addElement(e);
+		}
+		if (selected != null)
+			list.setSelectedValue(selected, true);
+		showStatus();
+	}
+
+	private void showStatus() {
+		String s = shown.size() + " of " + entries.size() + " patterns";
+		if (!duplicates.isEmpty())
+			s += ", " + duplicates.size() + " duplicates";
+		if (refreshing)
+			s += " (indexing...)";
+		status.setText(s);
+	}
+
+	private static String describe(PatternIndex.Entry e) {
+		if (e.getError() != null)
+			return e.getPath() + " (unreadable)";
+		return e.getPath() + "  " + e.getWidth() + "x" + e.getHeight() + ", "
+				+ e.getPopulation() + " cells"
+				+ (e.getRule() == null ? "" : ", " + e.getRule());
+	}
+
+	/**
+	 * @return the entry's thumbnail as an icon, made the first time it is
+	 *         drawn
+	 */
+	private ImageIcon thumbnail(PatternIndex.Entry e) {
+		ImageIcon icon = thumbnails.get(e);
+		if (icon == null) {
+			int size = PatternIndex.THUMBNAIL_SIZE;
+			BufferedImage image = new BufferedImage(size, size,
+					BufferedImage.TYPE_BYTE_GRAY);
+			int w = e.getThumbnailWidth(), h = e.getThumbnailHeight();
+			if (w > 0) {
+				int scale = Math.max(1, Math.min(size / w, size / h));
+				int x0 = (size - w * scale) / 2, y0 = (size - h * scale) / 2;
+				byte[] pixels = e.getThumbnail();
+				for (int y = 0; y < h * scale; y++)
+					for (int x = 0; x < w * scale; x++) {
+						int v = pixels[(y / scale) * w + x / scale] & 0xff;
+						image.getRaster().setSample(x0 + x, y0 + y, 0, v);
+					}
+			}
+			icon = new ImageIcon(image);
+			thumbnails.put(e, icon);
+		}
+		return icon;
+	}
+
+	@Override
+	public void valueChanged(ListSelectionEvent ev) {
+		PatternIndex.Entry e = list.getSelectedValue();
+		open.setEnabled(e != null && e.getError() == null);
+		if (e == null) {
+			details.setText("");
+			return;
+		}
+		StringBuilder s = new StringBuilder(describe(e)).append('\n');
+		if (e.getError() != null)
+			s.append(e.getError()).append('\n');
+		int[] bounds = e.getBounds();
+		if (bounds != null)
+			s.append("Bounding box: ").append(bounds[3]).append('x')
+					.append(bounds[2]).append(" at (").append(bounds[1])
+					.append(", ").append(bounds[0]).append(")\n");
+		PatternIndex.Entry original = duplicates.get(e);
+		if (original != null)
+			s.append("Same as ").append(original.getPath()).append('\n');
+		for (String c : e.getComments())
+			s.append('\n').append(c);
+		details.setText(s.toString());
+		details.setCaretPosition(0);
+	}
+
+	/**
+	 * Loads the selected pattern into the colony, with its rule.
+	 */
+	private void openSelected() {
+		PatternIndex.Entry e = list.getSelectedValue();
+		if (e == null || e.getError() != null)
+			return;
+		FileTask.load(this, colony, index.getFile(e));
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (e.getSource() == open) {
+			openSelected();
+		} else if (e.getSource() == folder) {
+			JFileChooser chooser = new JFileChooser(index.getRoot());
+			chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+			if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+				setDirectory(chooser.getSelectedFile());
+		}
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		applyFilter();
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		applyFilter();
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+	}
+}
@@ -7,15 +7,18 @@ import java.awt.event.KeyEvent;
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JLabel;
 import javax.swing.JSlider;
 import javax.swing.JSpinner;
 import javax.swing.JToolBar;
+import javax.swing.SpinnerListModel;
 import javax.swing.SpinnerModel;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import logic.Colony;
+import logic.ColonyEvent;
 
 /**
  * The toolbar panel containing the basic functions.
@@ -48,13 +51,31 @@ public class Toolbar extends JToolBar implements ActionListener,
 
 	public static final String SUFFIX = "32.png"; // used for ImageIcons
 
+	private JLabel cycle = new JLabel(); // the period once the colony repeats
 	private JSpinner density; // density for drawing
 	private JSpinner cell_size_spinner;
 	public int cell_size = 3;
+	public int zoom_level = 0; // zoomed out: 2^zoom_level cells a pixel
+
+	private static final int MAX_ZOOM_LEVEL = 8, MAX_CELL_SIZE = 10;
+
+	/**
+	 * @return the choices of the cell size spinner: "1:256" up to "1:2" to
+	 *         zoom out, then the cell sizes
+	 */
+	private static String[] sizes() {
+		String[] sizes = new String[MAX_ZOOM_LEVEL + MAX_CELL_SIZE];
+		for (int i = 0; i < MAX_ZOOM_LEVEL; i++)
+			sizes[i] = "1:" + (1 << MAX_ZOOM_LEVEL - i);
+		for (int i = 1; i <= MAX_CELL_SIZE; i++)
+			sizes[MAX_ZOOM_LEVEL + i - 1] = String.valueOf(i);
+		return sizes;
+	}
 
 	/*
 	 * because the delay has an exponential effect, some math must be done for
-	 * the JSlider
+	 * the JSlider. The fast end is a delay of 0 ("turbo"), and the steps next
+	 * to it are fractions of a millisecond.
 	 */
 	private JSlider delay; // simulation speed
 	private Object f;
@@ -93,17 +114,21 @@ public class Toolbar extends JToolBar implements ActionListener,
 		delay.setInverted(true); // goes from high number to low
 		delay.addChangeListener(this);
 		delay.setBorder(BorderFactory.createTitledBorder("Simulation Speed"));
+		delay.setToolTipText("All the way right runs as fast as possible.");
+		colony.setDelay(getDelay());
 
 		// set up density spinner
 		density = new JSpinner(new SpinnerNumberModel(1, 0.1, 1.0, 0.1));
 		density.setBorder(BorderFactory.createTitledBorder("Drawing Density"));
 		density.setToolTipText("Success rate for populate and eradicate.");
 
-		cell_size_spinner = new JSpinner(new SpinnerNumberModel(cell_size, 1,
-				10, 1));
+		SpinnerListModel sizes = new SpinnerListModel(sizes());
+		sizes.setValue(String.valueOf(cell_size));
+		cell_size_spinner = new JSpinner(sizes);
 		cell_size_spinner.setBorder(BorderFactory
 				.createTitledBorder("Cell Size"));
-		cell_size_spinner.setToolTipText("Cell size for drawing");
+		cell_size_spinner
+				.setToolTipText("Cell size for drawing, or 1:n to zoom out");
 		cell_size_spinner.addChangeListener(this);
 
 		add(reset);
@@ -115,6 +140,8 @@ public class Toolbar extends JToolBar implements ActionListener,
 		add(eradicate);
 		add(density);
 		add(cell_size_spinner);
+		addSeparator();
+		add(cycle);
 	}
 
 	/**
@@ -157,29 +184,45 @@ public class Toolbar extends JToolBar implements ActionListener,
 			return "populate";
 	}
 
+	/**
+	 * 
+	 * @return the delay set on the JSlider, in milliseconds
+	 */
+	public double getDelay() {
+		double value = (double) delay.getValue();
+		return Math.pow(value / min, exp) + wantedMin - 1;
+	}
+
 	@Override
 	/**
 	 * Change colony delay when JSlider changed
 	 */
 	public void stateChanged(ChangeEvent e) {
-		double value = (double) delay.getValue();
-		double delay = Math.pow(value / min, exp) + wantedMin - 1;
-		colony.timer.setDelay((int) delay);
+		colony.setDelay(getDelay());
 
-		cell_size = (Integer) (cell_size_spinner.getValue());
-		cp.setCellSize(cell_size);
+		String size = (String) cell_size_spinner.getValue();
+		if (size.startsWith("1:")) { // n cells a pixel
+			cell_size = 1;
+			zoom_level = Integer.numberOfTrailingZeros(Integer.parseInt(size
+					.substring(2)));
+		} else {
+			cell_size = Integer.parseInt(size);
+			zoom_level = 0;
+		}
+		cp.setScale(cell_size, zoom_level);
 	}
 
 	@Override
-	public void colonyChanged(Colony colony) {
+	public void colonyChanged(ColonyEvent e) {
+		cycleDetected(e);
 	}
 
 	@Override
 	/**
 	 * Toggles play/pause button when simulation is started/stopped
 	 */
-	public void simulationToggled() {
-		if (colony.timer.isRunning()) { // if running
+	public void simulationToggled(ColonyEvent e) {
+		if (colony.isRunning()) { // if running
 			start.setToolTipText(alt_info[0][1]);// set to pause text
 			start.setIcon(alt_icons[0]);// set to pause icon
 		} else {
@@ -189,7 +232,29 @@ public class Toolbar extends JToolBar implements ActionListener,
 	}
 
 	@Override
-	public void colonyAdvanced(Colony colony) {
+	public void colonyAdvanced(ColonyEvent e) {
+		if (colony.getPeriod() == 0 && cycle.getText().length() > 0)
+			cycle.setText(""); // edited, or moving again
+	}
+
+	@Override
+	/**
+	 * Shows what the colony settled into.
+	 */
+	public void cycleDetected(ColonyEvent e) {
+		long period = colony.getPeriod();
+		long[] moved = colony.getDisplacement();
+		if (period == 0)
+			cycle.setText("");
+		else if (colony.getPopulation() == 0)
+			cycle.setText("Died out");
+		else if (moved[0] != 0 || moved[1] != 0)
+			cycle.setText("Spaceship, period " + period + ", moving ("
+					+ moved[1] + ", " + moved[0] + ")");
+		else if (period == 1)
+			cycle.setText("Still life");
+		else
+			cycle.setText("Oscillator, period " + period);
 	}
 
 }
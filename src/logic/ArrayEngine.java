@@ -0,0 +1,180 @@
+package logic;
+
+import java.util.Arrays;
+
+/**
+ * A 2D boolean array implementation of an engine. Two grids are allocated up
+ * front and swapped every generation so stepping creates no garbage. On a
+ * torus the border is filled with the cells from the opposite edges before
+ * each step, so the loop never wraps anything itself.
+ * 
+ */
+public class ArrayEngine implements Engine {
+
+	private int width, height;
+
+	/*
+	 * the current and next generation. Both have a border of dead cells
+	 * around them so counting neighbours needs no bounds checks.
+	 */
+	private boolean[][] cells;
+	private boolean[][] next;
+
+	private CellChangeListener listener;
+	private Rule rule = Rule.CONWAY;
+	private boolean toroidal;
+
+	public ArrayEngine(boolean[][] grid) {
+		load(grid);
+	}
+
+	@Override
+	public void load(boolean[][] grid) {
+		int h = grid.length;
+		int w = h == 0 ? 0 : grid[0].length;
+		if (cells == null || w != width || h != height) {
+			width = w;
+			height = h;
+			cells = new boolean[height + 2][width + 2];
+			next = new boolean[height + 2][width + 2];
+		}
+		for (int row = 0; row < height; row++)
+			System.arraycopy(grid[row], 0, cells[row + 1], 1, width);
+	}
+
+	@Override
+	public void step() {
+		if (toroidal)
+			wrap();
+		CellChangeListener listener = this.listener;
+		Rule rule = this.rule;
+		for (int row = 1; row <= height; row++) {
+			boolean[] up = cells[row - 1], mid = cells[row], down = cells[row + 1];
+			boolean[] out = next[row];
+			for (int col = 1; col <= width; col++) {
+				int neighbours = 0;
+				if (up[col - 1]) neighbours++;
+				if (up[col]) neighbours++;
+				if (up[col + 1]) neighbours++;
+				if (mid[col - 1]) neighbours++;
+				if (mid[col + 1]) neighbours++;
+				if (down[col - 1]) neighbours++;
+				if (down[col]) neighbours++;
+				if (down[col + 1]) neighbours++;
+
+				/* the rule's table */
+				boolean alive = rule.next(mid[col], neighbours);
+				out[col] = alive;
+				if (listener != null && alive != mid[col])
+					listener.cellsChanged(row - 1, col - 1, alive ? 1 : 0,
+							alive ? 0 : 1);
+			}
+		}
+
+		boolean[][] temp = cells; // swap the buffers
+		cells = next;
+		next = temp;
+	}
+
+	/**
+	 * Copies the cells on each edge into the border beyond the opposite
+	 * edge, corners included.
+	 */
+	private void wrap() {
+		for (int row = 1; row <= height; row++) {
+			boolean[] cells = this.cells[row];
+			cells[0] = cells[width];
+			cells[width + 1] = cells[1];
+		}
+		System.arraycopy(cells[height], 0, cells[0], 0, width + 2);
+		System.arraycopy(cells[1], 0, cells[height + 1], 0, width + 2);
+	}
+
+	/**
+	 * Kills the border of the grid.
+	 */
+	private static void clearBorder(boolean[][] grid) {
+		Arrays.fill(grid[0], false);
+		Arrays.fill(grid[grid.length - 1], false);
+		for (boolean[] row : grid) {
+			row[0] = false;
+			row[row.length - 1] = false;
+		}
+	}
+
+	@Override
+	public void setToroidal(boolean toroidal) {
+		this.toroidal = toroidal;
+		if (!toroidal) {
+			clearBorder(cells);
+			clearBorder(next);
+		}
+	}
+
+	@Override
+	public boolean isToroidal() {
+		return toroidal;
+	}
+
+	@Override
+	public long getStepSize() {
+		return 1;
+	}
+
+	@Override
+	public void setCellChangeListener(CellChangeListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = rule;
+	}
+
+	@Override
+	public Rule getRule() {
+		return rule;
+	}
+
+	@Override
+	public boolean get(int row, int column) {
+		if (row < 0 || row >= height || column < 0 || column >= width)
+			return false;
+		return cells[row + 1][column + 1];
+	}
+
+	@Override
+	public void set(int row, int column, boolean alive) {
+		if (row < 0 || row >= height || column < 0 || column >= width)
+			return;
+		cells[row + 1][column + 1] = alive;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public long getPopulation() {
+		long count = 0;
+		for (int row = 1; row <= height; row++)
+			for (int col = 1; col <= width; col++)
+				if (cells[row][col])
+					count++;
+		return count;
+	}
+
+	@Override
+	public boolean[][] getGrid() {
+		boolean[][] grid = new boolean[height][width];
+		for (int row = 0; row < height; row++)
+			System.arraycopy(cells[row + 1], 1, grid[row], 0, width);
+		return grid;
+	}
+}
@@ -0,0 +1,53 @@
+package logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Saves files so a failed save never leaves half a file behind: the new
+ * contents are written to a temporary file beside the old one, which is
+ * renamed over it once complete.
+ * 
+ * <pre>
+ * File temp = AtomicSave.createTemp(file);
+ * try {
+ * 	// write temp
+ * 	AtomicSave.replace(temp, file);
+ * } finally {
+ * 	temp.delete(); // only still there if something went wrong
+ * }
+ * </pre>
+ *
+ */
+class AtomicSave {
+
+	private AtomicSave() {
+	}
+
+	/**
+	 * @return a new empty file in the same directory as the file, so it can
+	 *         be renamed over it
+	 */
+	static File createTemp(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		return File.createTempFile(".save", ".tmp", dir);
+	}
+
+	/**
+	 * Renames the temporary file over the file, in one step where the file
+	 * system allows it.
+	 */
+	static void replace(File temp, File file) throws IOException {
+		try {
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
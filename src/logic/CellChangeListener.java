@@ -0,0 +1,24 @@
+package logic;
+
+/**
+ * Told by an engine about the cells that change in each step, so things like
+ * a running hash of the colony can be kept up to date without rescanning the
+ * grid.
+ * 
+ */
+public interface CellChangeListener {
+
+	/**
+	 * Called for a run of up to 64 cells of one row that changed. Bit j of
+	 * each mask is the cell at column + j. Unbounded engines report cells
+	 * outside of their window too.
+	 * <p>
+	 * May be called from several threads at once.
+	 * 
+	 * @param born
+	 *            the cells that came alive
+	 * @param died
+	 *            the cells that died
+	 */
+	public void cellsChanged(long row, long column, long born, long died);
+}
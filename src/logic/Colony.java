@@ -2,29 +2,89 @@ package logic;
 
 import gui.ColonyChangeListener;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.util.ArrayList;
-
-import javax.swing.Timer;
+import java.awt.Rectangle;
+import java.nio.LongBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A 2D boolean array implementation of a colony.
+ * A colony of cells. The cells themselves are held and stepped by an Engine;
+ * the colony takes care of running the simulation, the listeners and the
+ * initial state.
+ * <p>
+ * A running simulation steps on its own worker thread, as fast as the delay
+ * allows, holding the colony's lock while it steps. At most once a frame it
+ * copies what changed into the colony's view, which painting reads, and
+ * tells the listeners; the generations in between are skipped. Changes made
+ * while it runs, from the event thread or any other, are queued for the
+ * worker to make between steps, and the getters read the view or fields of
+ * their own, so nothing waits for a step but getGrid(). Listeners are told
+ * through a ColonyEventBus, so they never hold up the simulation.
  * 
  * @author Soheil Koushan
  * 
  */
-public class Colony implements ActionListener {
+public class Colony {
 
-	private boolean[][] grid;
+	private volatile Engine engine; // holds the cells and does the stepping
 	private boolean[][] initial; // used for reseting to initial state
-	private ArrayList<ColonyChangeListener> listeners = new ArrayList<ColonyChangeListener>();
+	private SnapshotFile snapshot; // the initial state, if loaded from one
+	private volatile long generation; // generations since the initial state
+	private History history = new History(DEFAULT_HISTORY_BYTES);
+	private CycleDetector cycles = new CycleDetector();
+	private DirtyRegions dirty = new DirtyRegions(); // changed since notifying
+	private ColonyView view = new ColonyView(); // what was last shown
+	private SimulationMetrics metrics = new SimulationMetrics();
+	private volatile Rule rule; // the engine's
+	private volatile boolean toroidal; // wrapped around, if the engine has edges
+
+	/* passes the engine's changes on to everything that follows them */
+	private CellChangeListener changes = new CellChangeListener() {
+		@Override
+		public void cellsChanged(long row, long column, long born, long died) {
+			cycles.cellsChanged(row, column, born, died);
+			history.cellsChanged(row, column, born, died);
+			dirty.cellsChanged(row, column, born, died);
+		}
+	};
+	private volatile boolean stopOnCycle; // stop once the colony repeats
+	private ColonyEventBus bus = new ColonyEventBus(metrics);
+
+	/* the simulation runs on the worker, which also makes queued changes */
+	private volatile Thread worker; // null when stopped
+	private final Object control = new Object(); // for starting and stopping
+	private final AtomicInteger workers = new AtomicInteger(); // not finished
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private volatile double delay = DEFAULT_DELAY;
+	private volatile boolean stale; // changed since the listeners were last told
+	private volatile long shown; // when they were, by System.nanoTime()
+
+	/** the time between generations, in milliseconds, by default */
+	public static final double DEFAULT_DELAY = 100;
+
+	/** how often a running colony is shown, in milliseconds */
+	public static final int FRAME_DELAY = 16;
+	private static final long FRAME_NANOS = FRAME_DELAY * 1000000L;
+
+	/* how far the worker may fall behind before it stops catching up */
+	private static final long MAX_LAG = 100000000L; // ns
 
-	public Timer timer = new Timer(gui.Toolbar.DEFAULT_DELAY, this);
+	/** the memory kept for stepping back, by default */
+	public static final long DEFAULT_HISTORY_BYTES = 64L << 20;
 
 	public Colony(boolean[][] grid) {
-		this.grid = grid;
+		engine = new ArrayEngine(grid);
 		initial = grid;
+		rule = engine.getRule();
+		history.clear(engine, 0);
+		engine.setCellChangeListener(changes);
+		metrics.setEngine(engine);
+		cycles.reset(engine, 0);
+		dirty.reset(engine.getWidth(), engine.getHeight());
+		view.update(engine, null, 0, cycles);
 	}
 
 	/** default constructor */
@@ -39,79 +99,335 @@ public class Colony implements ActionListener {
 	 *            a number from 0 to 1
 	 */
 	public Colony(double density, int width, int height) {
-		grid = new boolean[height][width];
-		initial = grid;
+		this(randomGrid(density, width, height));
+	}
+
+	private static boolean[][] randomGrid(double density, int width,
+			int height) {
+		boolean[][] grid = new boolean[height][width];
 		for (int row = 0; row < grid.length; row++)
 			for (int col = 0; col < grid[0].length; col++)
 				grid[row][col] = Math.random() < density;
+		return grid;
 	}
 
 	/**
-	 * @return whether the cell is alive.
+	 * @return whether the cell is alive, in the generation last shown.
 	 */
 	public boolean alive(int row, int column) {
-		if (withinArray(row, column))
-			return grid[row][column];
-		else
-			return false;
+		return view.get(row, column);
 	}
 
 	/**
-	 * @return if the cell should live based on the game rules.
+	 * @return if the cell should live based on the rule.
 	 */
-	public boolean live(int row, int column) {
+	public synchronized boolean live(int row, int column) {
 		if (!withinArray(row, column))
 			return false;
 
 		int neighbours = neighbours(row, column); // count the neighbours
-
-		/* game rules */
-		if (neighbours == 3)
-			return true;
-		if (neighbours == 2 && grid[row][column]) // if 2 and alive
-			return true;
-		else
-			return false;
+		return engine.getRule().next(engine.get(row, column), neighbours);
 	}
 
 	/**
 	 * advances the colony by 1 generation.
 	 */
 	public void advance() {
-		boolean[][] advanced = new boolean[grid.length][grid[0].length];
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				boolean cycling = stepQuietly();
+				if (cycling && stopOnCycle)
+					stop();
+				publish(ColonyEvent.ADVANCED
+						| (cycling ? ColonyEvent.CYCLE : 0));
+			}
+		});
+	}
 
-		// loop through all cells and check if it should live
-		for (int row = 0; row < grid.length; row++)
-			for (int col = 0; col < grid[0].length; col++)
-				advanced[row][col] = live(row, col);
+	/**
+	 * Steps the engine without telling the listeners.
+	 * 
+	 * @return whether the colony just started repeating
+	 */
+	private boolean stepQuietly() {
+		long start = System.nanoTime();
+		long allocated = SimulationMetrics.allocatedBytes();
+		engine.step();
+		long step = engine.getStepSize();
+		generation += step;
+		history.record(engine, generation);
+		boolean cycling = cycles.check(generation);
+		stale = true;
+		metrics.stepped(step, step * engine.getWidth() * engine.getHeight(),
+				System.nanoTime() - start, SimulationMetrics.allocatedBytes()
+						- allocated);
+		metrics.setState(generation, cycles.getPopulation());
+		return cycling;
+	}
+
+	/**
+	 * Writes the number of live cells in each block of 2^level by 2^level
+	 * cells of the given rectangle, in blocks, into counts, a row at a time.
+	 */
+	public void getDensity(int level, int x, int y, int width, int height,
+			int[] counts) {
+		view.getDensity(level, x, y, width, height, counts);
+	}
+
+	/**
+	 * @return the generation last shown, which painting reads
+	 */
+	public ColonyView getView() {
+		return view;
+	}
 
-		grid = advanced;
-		notifyAdvanceListeners();
+	/**
+	 * @return the period the colony is repeating with (1 for a still life),
+	 *         or 0 if it isn't repeating, as last shown
+	 */
+	public long getPeriod() {
+		return view.getPeriod();
+	}
+
+	/**
+	 * @return how far the colony moves each period, as {rows, columns}. Not
+	 *         0 for spaceships.
+	 */
+	public long[] getDisplacement() {
+		return view.getDisplacement();
 	}
 
+	/**
+	 * Sets whether the simulation stops by itself once the colony repeats.
+	 */
+	public void setStopOnCycle(boolean stop) {
+		stopOnCycle = stop;
+	}
+
+	public boolean getStopOnCycle() {
+		return stopOnCycle;
+	}
+
+	/**
+	 * Goes back to the previous generation in the history.
+	 * 
+	 * @return false if there is no earlier generation left, as always with
+	 *         an unbounded engine; true if it was queued for the worker
+	 */
+	public boolean stepBack() {
+		final boolean[] found = { false };
+		boolean ran = perform(new Runnable() {
+			@Override
+			public void run() {
+				found[0] = generation > 0 && seekNow(generation - 1);
+			}
+		});
+		return !ran || found[0];
+	}
+
+	/**
+	 * Goes to the given generation, or the nearest earlier one the history
+	 * still holds. Generations after it are kept until the colony is advanced
+	 * or edited.
+	 * 
+	 * @return false if the history holds nothing that early; true if it was
+	 *         queued for the worker
+	 */
+	public boolean seek(final long target) {
+		final boolean[] found = { false };
+		boolean ran = perform(new Runnable() {
+			@Override
+			public void run() {
+				found[0] = seekNow(target);
+			}
+		});
+		return !ran || found[0];
+	}
+
+	private boolean seekNow(long target) {
+		long found = history.floor(target);
+		if (found < 0 || !history.seek(engine, found))
+			return false;
+		generation = found;
+		cycles.reset(engine, generation);
+		dirty.markAll();
+		publish(ColonyEvent.ADVANCED);
+		return true;
+	}
+
+	/**
+	 * Limits the memory used to remember earlier generations.
+	 */
+	public void setHistoryLimit(final long bytes) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				history.setMemoryLimit(bytes);
+			}
+		});
+	}
+
+	public History getHistory() {
+		return history;
+	}
+
+	/**
+	 * @return the width of the grid last shown
+	 */
 	public int getWidth() {
-		return grid[0].length;
+		return view.getWidth();
 	}
 
+	/**
+	 * @return the height of the grid last shown
+	 */
 	public int getHeight() {
-		return grid.length;
+		return view.getHeight();
 	}
 
-	public boolean[][] getGrid() {
-		return grid;
+	/**
+	 * @return a copy of the grid. Waits for a step in progress.
+	 */
+	public synchronized boolean[][] getGrid() {
+		return engine.getGrid();
+	}
+
+	/**
+	 * @return the number of generations since the initial state
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the number of live cells, as last shown
+	 */
+	public long getPopulation() {
+		return view.getPopulation();
+	}
+
+	/**
+	 * @return the measurements of the simulation, for JMX
+	 */
+	public SimulationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the engine, which only the colony's lock holder may use
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return the rule the cells follow
+	 */
+	public Rule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Changes the rule the cells follow from the next generation on. The
+	 * generations before are kept.
+	 */
+	public void setRule(final Rule rule) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				engine.setRule(rule);
+				Colony.this.rule = rule;
+				cycles.restart(generation); // repeats under the old rule don't count
+			}
+		});
+	}
+
+	/**
+	 * @return whether the grid wraps around, as a torus
+	 */
+	public boolean isToroidal() {
+		return toroidal;
+	}
+
+	/**
+	 * Sets whether the grid wraps around, so the cells on each edge are
+	 * neighbours of those on the opposite edge, instead of everything
+	 * outside the grid being dead. Kept when the engine changes, though
+	 * engines with no edges ignore it.
+	 */
+	public void setToroidal(final boolean toroidal) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				Colony.this.toroidal = toroidal;
+				engine.setToroidal(toroidal);
+				cycles.restart(generation);
+			}
+		});
+	}
+
+	/**
+	 * Switches to the given engine. The engine is given the current cells,
+	 * rule and topology. The history is kept, unless either engine is
+	 * unbounded.
+	 */
+	public void setEngine(final Engine e) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				// packed rows are copied as they are, without a grid
+				if (e instanceof PackedEngine
+						&& engine instanceof PackedEngine) {
+					int height = engine.getHeight();
+					PackedEngine from = (PackedEngine) engine;
+					LongBuffer rows = LongBuffer.allocate(height
+							* from.getWordsPerRow());
+					from.getRows(0, height, rows);
+					rows.flip();
+					((PackedEngine) e).load(engine.getWidth(), height, rows);
+				} else {
+					e.load(engine.getGrid());
+				}
+				e.setRule(engine.getRule());
+				e.setToroidal(toroidal);
+				if (e instanceof UnboundedEngine
+						|| engine instanceof UnboundedEngine)
+					history.clear(e, generation);
+				engine.setCellChangeListener(null);
+				engine = e;
+				engine.setCellChangeListener(changes);
+				metrics.setEngine(engine);
+				dirty.markAll();
+				publish(ColonyEvent.ADVANCED);
+			}
+		});
 	}
 
 	/**
 	 * used to set all the values given by the parameters to the boolean given
 	 */
-	private void iterate(int x, int y, int width, int height, double density,
-			boolean bool) {
-		for (int row = y; row < y + height; row++)
-			for (int column = x; column < x + width; column++) {
-				if (withinArray(row, column) && Math.random() < density)
-					grid[row][column] = bool;
+	private void iterate(final int x, final int y, final int width,
+			final int height, final double density, final boolean bool) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				int bottom = Math.min(y + height, engine.getHeight());
+				int right = Math.min(x + width, engine.getWidth());
+				for (int row = Math.max(0, y); row < bottom; row++)
+					for (int column = Math.max(0, x); column < right; column++) {
+						if (Math.random() < density
+								&& engine.get(row, column) != bool) {
+							engine.set(row, column, bool);
+							changes.cellsChanged(row, column, bool ? 1 : 0,
+									bool ? 0 : 1);
+						}
+					}
+				history.record(engine, generation); // kept with this generation
+				cycles.restart(generation);
+				publish(ColonyEvent.ADVANCED);
 			}
-		notifyAdvanceListeners();
+		});
 	}
 
 	public void populate(int x, int y, int width, int height, double density) {
@@ -123,25 +439,20 @@ public class Colony implements ActionListener {
 	}
 
 	/**
-	 * @return number of live neighbours
+	 * @return number of live neighbours, across the edges on a torus
 	 */
 	private int neighbours(int row, int column) {
+		int height = engine.getHeight(), width = engine.getWidth();
+		boolean wrap = engine.isToroidal();
 		int count = 0;
-		// check the first and last row (skips middle row with +=2)
-		for (int r = row - 1; r <= row + 1; r += 2)
+		for (int r = row - 1; r <= row + 1; r++)
 			for (int c = column - 1; c <= column + 1; c++) {
-				if (withinArray(r, c) && grid[r][c]) {
+				if (r == row && c == column)
+					continue;
+				if (wrap ? engine.get((r + height) % height, (c + width)
+						% width) : engine.get(r, c))
 					count++;
-				}
 			}
-
-		// check the second row (skips the center column with +=2)
-		for (int c = column - 1; c <= column + 1; c += 2) {
-			if (withinArray(row, c) && grid[row][c]) {
-				count++;
-			}
-		}
-
 		return count;
 	}
 
@@ -151,8 +462,8 @@ public class Colony implements ActionListener {
 	 * @return if the row and column are bounded by the grid
 	 */
 	private boolean withinArray(int row, int column) {
-		if (row >= 0 && row < grid.length && column >= 0
-				&& column < grid[0].length)
+		if (row >= 0 && row < engine.getHeight() && column >= 0
+				&& column < engine.getWidth())
 			return true;
 		else
 			return false;
@@ -165,92 +476,296 @@ public class Colony implements ActionListener {
 	 * @return a string representation of the grid
 	 */
 	public static String toString(boolean[][] grid) {
-		String output = "Colony:\n";
+		StringBuilder output = new StringBuilder("Colony:\n");
 		for (int row = 0; row < grid.length; row++) {
 			for (int col = 0; col < grid[0].length; col++) {
-				output += grid[row][col] ? '*' : '.';
+				output.append(grid[row][col] ? '*' : '.');
 			}
-			output += '\n';
+			output.append('\n');
 		}
-		return output;
+		return output.toString();
 	}
 
 	public String toString() {
-		return toString(grid);
+		return toString(getGrid());
 	}
 
 	/**
-	 * Becomes the given grid.
+	 * Becomes the given grid, keeping the rule.
 	 */
 	public void load(boolean[][] grid) {
-		this.grid = grid;
-		initial = this.grid; // reset inital grid
-		notifyListeners(false, true, false);
+		load(grid, null);
+	}
+
+	/**
+	 * Becomes the given grid, following the given rule, or the current one if
+	 * it is null. The grid is kept for reset() but never written to, so it
+	 * may be shared.
+	 */
+	public void load(final boolean[][] grid, final Rule rule) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				if (rule != null) {
+					engine.setRule(rule);
+					Colony.this.rule = rule;
+				}
+				engine.load(grid);
+				initial = grid; // reset inital grid
+				snapshot = null;
+				generation = 0;
+				history.clear(engine, 0);
+				cycles.reset(engine, 0);
+				dirty.reset(engine.getWidth(), engine.getHeight());
+				publish(ColonyEvent.CHANGED);
+			}
+		});
+	}
+
+	/**
+	 * Becomes the cells of a snapshot, following the given rule, or the
+	 * current one if it is null. Packed engines copy the mapped rows straight
+	 * in, so no grid eight times the size of the file is built; the snapshot
+	 * is kept for reset() instead. Saving replaces a file rather than writing
+	 * over it, so the mapping keeps the cells it was opened with.
+	 */
+	public void load(final SnapshotFile snapshot, final Rule rule) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				if (rule != null) {
+					engine.setRule(rule);
+					Colony.this.rule = rule;
+				}
+				snapshot.loadInto(engine);
+				initial = null;
+				Colony.this.snapshot = snapshot;
+				generation = 0;
+				history.clear(engine, 0);
+				cycles.reset(engine, 0);
+				dirty.reset(engine.getWidth(), engine.getHeight());
+				publish(ColonyEvent.CHANGED);
+			}
+		});
 	}
 
 	/**
 	 * Resets the grid to its initial state.
 	 */
 	public void reset() {
-		grid = initial;
-		notifyAdvanceListeners();
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				if (snapshot != null)
+					snapshot.loadInto(engine);
+				else
+					engine.load(initial);
+				generation = 0;
+				history.clear(engine, 0);
+				cycles.reset(engine, 0);
+				dirty.reset(engine.getWidth(), engine.getHeight());
+				publish(ColonyEvent.ADVANCED);
+			}
+		});
 	}
 
 	/* methods for colony changes */
 	public void addColonyChangeListener(ColonyChangeListener cgl) {
-		if (!listeners.contains(cgl))
-			listeners.add(cgl);
+		bus.subscribe(cgl);
+	}
+
+	/**
+	 * Adds a listener that is called on a thread of its own instead of the
+	 * event thread, for listeners too slow to keep up with every frame.
+	 */
+	public void addBackgroundListener(ColonyChangeListener cgl) {
+		bus.subscribe(cgl, true);
 	}
 
 	public boolean removeColonyChangeListener(ColonyChangeListener cgl) {
-		return listeners.remove(cgl);
-	}
-
-	public void notifyListeners(boolean colonyAdvanced, boolean colonyChanged,
-			boolean simulationToggled) {
-		for (int i = 0; i < listeners.size(); i++) {
-			ColonyChangeListener cgl = listeners.get(i);
-			if (colonyAdvanced)
-				cgl.colonyAdvanced(this);
-			if (colonyChanged)
-				cgl.colonyChanged(this);
-			if (simulationToggled)
-				cgl.simulationToggled();
+		return bus.unsubscribe(cgl);
+	}
+
+	/**
+	 * Tells the listeners what happened, without waiting for them. An
+	 * ADVANCED or CHANGED event carries the parts of the colony that changed
+	 * since the last one, which are copied into the view first.
+	 * 
+	 * @param types
+	 *            some of the ColonyEvent types
+	 */
+	public void notifyListeners(final int types) {
+		perform(new Runnable() {
+			@Override
+			public void run() {
+				publish(types);
+			}
+		});
+	}
+
+	/**
+	 * Does notifyListeners(), holding the colony's lock.
+	 */
+	private void publish(int types) {
+		List<Rectangle> regions = Collections.emptyList();
+		if ((types & (ColonyEvent.ADVANCED | ColonyEvent.CHANGED)) != 0) {
+			regions = (types & ColonyEvent.CHANGED) != 0 ? null : dirty
+					.getRegions();
+			view.update(engine, regions, generation, cycles);
+			dirty.clear(); // the regions go with the event
+			stale = false;
+			shown = System.nanoTime();
+			metrics.setState(generation, cycles.getPopulation());
 		}
+		bus.post(new ColonyEvent(this, types, generation, regions));
 	}
 
-	// only notify that an advance has taken place
-	public void notifyAdvanceListeners() {
-		notifyListeners(true, false, false);
+	/**
+	 * Makes a change to the colony. While the simulation runs the change is
+	 * queued for the worker, which makes it before its next step, so the
+	 * caller never waits for a step; otherwise it is made now, holding the
+	 * colony's lock.
+	 * 
+	 * @return whether the change was made before returning
+	 */
+	private boolean perform(Runnable task) {
+		tasks.add(task);
+		if (workers.get() > 0) { // a worker will get to it, even if stopped
+			Thread w = worker;
+			if (w != null)
+				LockSupport.unpark(w); // so a long delay is cut short
+			return false;
+		}
+		runTasks();
+		return true;
 	}
 
 	/**
-	 * Called by the timer. Advanced the colony.
+	 * Makes the queued changes, in order.
 	 */
-	@Override
-	public void actionPerformed(ActionEvent evt) {
-		advance();
-		notifyAdvanceListeners();
+	private synchronized void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null)
+			task.run();
 	}
 
 	/**
 	 * Toggles the simulation (stops/starts it).
 	 */
 	public void toggleTimer() {
-		if (timer.isRunning()) {
-			stop();
-		} else {
-			start();
+		synchronized (control) {
+			if (isRunning()) {
+				stop();
+			} else {
+				start();
+			}
 		}
 	}
 
+	/**
+	 * Stops the simulation. May be called from any thread, and doesn't wait
+	 * for the worker: it shows the last generation and makes any queued
+	 * changes once it finishes its step.
+	 */
 	public void stop() {
-		timer.stop();
-		notifyListeners(false, false, true);
+		synchronized (control) {
+			Thread old = worker;
+			if (old == null)
+				return;
+			worker = null; // checked by the worker before every step
+			LockSupport.unpark(old);
+			bus.post(new ColonyEvent(this, ColonyEvent.TOGGLED, generation,
+					Collections.<Rectangle> emptyList()));
+		}
 	}
 
+	/**
+	 * Starts the simulation on a new worker thread. May be called from any
+	 * thread.
+	 */
 	public void start() {
-		timer.start();
-		notifyListeners(false, false, true);
+		synchronized (control) {
+			if (worker != null)
+				return;
+			worker = new Thread(new Worker(), "Colony worker");
+			worker.setDaemon(true);
+			workers.incrementAndGet();
+			worker.start();
+			bus.post(new ColonyEvent(this, ColonyEvent.TOGGLED, generation,
+					Collections.<Rectangle> emptyList()));
+		}
+	}
+
+	public boolean isRunning() {
+		return worker != null;
+	}
+
+	/**
+	 * Sets the time between generations while running, in milliseconds. 0
+	 * runs as fast as the engine can go.
+	 */
+	public void setDelay(double milliseconds) {
+		delay = Math.max(0, milliseconds);
+		Thread w = worker;
+		if (w != null)
+			LockSupport.unpark(w); // so a long wait is cut short
+	}
+
+	public double getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Steps the colony until it is stopped, waiting between generations to
+	 * keep to the delay, and makes the changes queued meanwhile. The last
+	 * generation is shown once it stops.
+	 */
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			Thread me = Thread.currentThread();
+			long last = System.nanoTime(); // when the last step was due
+			try {
+				while (worker == me) {
+					synchronized (Colony.this) {
+						runTasks();
+						if (worker != me)
+							break;
+						boolean cycling = stepQuietly();
+						if (cycling && stopOnCycle)
+							stop();
+						if (cycling) // shown right away
+							publish(ColonyEvent.ADVANCED | ColonyEvent.CYCLE);
+						else if (System.nanoTime() - shown >= FRAME_NANOS)
+							publish(ColonyEvent.ADVANCED);
+					}
+
+					long now = System.nanoTime(), due;
+					while (worker == me
+							&& (due = last + (long) (delay * 1e6)) > now) {
+						if (!tasks.isEmpty() || stale
+								&& now - shown >= FRAME_NANOS) {
+							synchronized (Colony.this) {
+								runTasks();
+								if (stale)
+									publish(ColonyEvent.ADVANCED);
+							}
+						}
+						long wake = stale ? Math.min(due, shown + FRAME_NANOS)
+								: due;
+						LockSupport.parkNanos(wake - now);
+						now = System.nanoTime();
+					}
+					last = Math.max(last + (long) (delay * 1e6), now - MAX_LAG);
+				}
+			} finally {
+				workers.decrementAndGet(); // anything queued now is ours
+				synchronized (Colony.this) {
+					runTasks();
+					if (stale)
+						publish(ColonyEvent.ADVANCED);
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,94 @@
+package logic;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What happened to a colony, as given to its ColonyChangeListeners. Events
+ * that pile up before a listener gets to them are merged into one, so an
+ * event can say several things at once.
+ *
+ */
+public class ColonyEvent {
+
+	/** the cells changed: the colony stepped, was edited or went back */
+	public static final int ADVANCED = 1;
+	/** the colony was replaced, maybe by one of another size */
+	public static final int CHANGED = 2;
+	/** the simulation was started or stopped */
+	public static final int TOGGLED = 4;
+	/** the colony started repeating itself: see Colony.getPeriod() */
+	public static final int CYCLE = 8;
+
+	/* past this many regions a merged event just says everything changed */
+	private static final int MAX_REGIONS = 256;
+
+	private final Colony colony;
+	private final int types;
+	private final long generation;
+	private final List<Rectangle> regions;
+
+	/**
+	 * @param types
+	 *            what happened, some of ADVANCED, CHANGED, TOGGLED and CYCLE
+	 * @param regions
+	 *            the parts of the colony that changed, in cells, or null if
+	 *            all of it may have
+	 */
+	public ColonyEvent(Colony colony, int types, long generation,
+			List<Rectangle> regions) {
+		this.colony = colony;
+		this.types = types;
+		this.generation = generation;
+		this.regions = regions == null ? null : Collections
+				.unmodifiableList(regions);
+	}
+
+	public Colony getColony() {
+		return colony;
+	}
+
+	/**
+	 * @return whether this event says that type of thing happened
+	 */
+	public boolean is(int type) {
+		return (types & type) != 0;
+	}
+
+	/**
+	 * @return the generation the colony was at
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the parts of the colony that changed, in cells, or null if all
+	 *         of it may have
+	 */
+	public List<Rectangle> getChangedRegions() {
+		return regions;
+	}
+
+	/**
+	 * @return one event saying what this one and a later one say
+	 */
+	public ColonyEvent merge(ColonyEvent later) {
+		List<Rectangle> merged = null;
+		if (regions != null && later.regions != null
+				&& regions.size() + later.regions.size() <= MAX_REGIONS) {
+			merged = new ArrayList<Rectangle>(regions);
+			merged.addAll(later.regions);
+		}
+		return new ColonyEvent(colony, types | later.types, later.generation,
+				merged);
+	}
+
+	public String toString() {
+		return "ColonyEvent[types=" + types + ",generation=" + generation
+				+ ",regions=" + (regions == null ? "all" : regions.size())
+				+ "]";
+	}
+}
@@ -0,0 +1,162 @@
+package logic;
+
+import gui.ColonyChangeListener;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Delivers a colony's events to its listeners. Posting never waits for a
+ * listener: each listener has a lane holding at most one pending event, and
+ * whatever is posted while the listener is still busy, or before its lane
+ * gets to run, is merged into that event. So a slow listener sees fewer,
+ * bigger events instead of holding up the simulation.
+ * <p>
+ * Listeners are called on the event thread, unless they were added as
+ * background listeners, which get a thread of their own.
+ *
+ */
+public class ColonyEventBus {
+
+	/**
+	 * One listener's pending event and where it is delivered.
+	 */
+	private final class Lane implements Runnable {
+		final ColonyChangeListener listener;
+		final ExecutorService background; // null for the event thread
+		private ColonyEvent pending; // guarded by this
+		private boolean scheduled; // guarded by this
+		private boolean closed; // guarded by this
+
+		Lane(ColonyChangeListener listener, ExecutorService background) {
+			this.listener = listener;
+			this.background = background;
+		}
+
+		void post(ColonyEvent e) {
+			synchronized (this) {
+				if (closed)
+					return; // unsubscribed while the event was on its way
+				pending = pending == null ? e : pending.merge(e);
+				if (scheduled)
+					return; // the run already queued will take it
+				scheduled = true;
+				if (background != null) {
+					// under the lock, so close() can't shut it down first
+					background.execute(this);
+					return;
+				}
+			}
+			SwingUtilities.invokeLater(this);
+		}
+
+		/**
+		 * Drops whatever is pending and stops the lane's thread, if it has
+		 * one. Nothing posted afterwards is queued.
+		 */
+		synchronized void close() {
+			closed = true;
+			pending = null;
+			if (background != null)
+				background.shutdown();
+		}
+
+		@Override
+		public void run() {
+			ColonyEvent e;
+			synchronized (this) {
+				e = pending;
+				pending = null;
+				scheduled = false;
+			}
+			if (e == null || !lanes.contains(this))
+				return;
+			long start = System.nanoTime();
+			deliver(listener, e);
+			if (metrics != null)
+				metrics.dispatched(System.nanoTime() - start);
+		}
+	}
+
+	private final CopyOnWriteArrayList<Lane> lanes = new CopyOnWriteArrayList<Lane>();
+	private final SimulationMetrics metrics;
+
+	/**
+	 * @param metrics
+	 *            where the time spent in listeners is recorded, or null
+	 */
+	public ColonyEventBus(SimulationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Adds a listener called on the event thread.
+	 */
+	public void subscribe(ColonyChangeListener listener) {
+		subscribe(listener, false);
+	}
+
+	/**
+	 * Adds a listener, called on a thread of its own if background is set.
+	 * A listener already added is left as it is.
+	 */
+	public synchronized void subscribe(ColonyChangeListener listener,
+			boolean background) {
+		if (find(listener) != null)
+			return;
+		ExecutorService thread = null;
+		if (background)
+			thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Colony listener");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		lanes.add(new Lane(listener, thread));
+	}
+
+	/**
+	 * Removes a listener. Events still pending for it are dropped.
+	 */
+	public synchronized boolean unsubscribe(ColonyChangeListener listener) {
+		Lane lane = find(listener);
+		if (lane == null)
+			return false;
+		lanes.remove(lane);
+		lane.close();
+		return true;
+	}
+
+	private Lane find(ColonyChangeListener listener) {
+		for (Lane lane : lanes)
+			if (lane.listener == listener)
+				return lane;
+		return null;
+	}
+
+	/**
+	 * Passes the event on to every listener, without waiting for any of
+	 * them. May be called from any thread.
+	 */
+	public void post(ColonyEvent e) {
+		for (Lane lane : lanes)
+			lane.post(e);
+	}
+
+	private static void deliver(ColonyChangeListener listener, ColonyEvent e) {
+		if (e.is(ColonyEvent.ADVANCED))
+			listener.colonyAdvanced(e);
+		if (e.is(ColonyEvent.CHANGED))
+			listener.colonyChanged(e);
+		if (e.is(ColonyEvent.TOGGLED))
+			listener.simulationToggled(e);
+		if (e.is(ColonyEvent.CYCLE))
+			listener.cycleDetected(e);
+	}
+}
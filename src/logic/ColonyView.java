@@ -0,0 +1,199 @@
+package logic;
+
+import java.awt.Rectangle;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The generation a colony last showed, for drawing. The colony copies the
+ * parts of its engine that changed into the view at most once a frame, and
+ * painting reads the view instead of the engine, so it never waits for a
+ * step. The cells are held packed, with a density pyramid over them for
+ * drawing zoomed out, and only the words that differ are written.
+ * <p>
+ * The view's own lock is held while the changes are written, which takes
+ * as long as copying them. Hold it while reading, so a frame shows a whole
+ * generation:
+ *
+ * <pre>
+ * synchronized (view) {
+ * 	...
+ * }
+ * </pre>
+ *
+ */
+public class ColonyView {
+
+	private PackedEngine cells = new PackedEngine(new boolean[0][0]);
+	private DensityPyramid density = new DensityPyramid();
+	private long generation, population, period, rowShift, columnShift;
+
+	/* the rows read from the engine, written by the colony's thread only */
+	private long[] next = new long[0];
+	private boolean[] changed = new boolean[0]; // rows read into next
+	private int[] from = new int[0], to = new int[0]; // their words
+	private int width, height, perRow; // of the engine read
+
+	/**
+	 * Copies the given regions of the engine, or all of it if they are null,
+	 * and the colony's state. Called with the colony's lock held; the view's
+	 * own lock is only taken once the rows have been read.
+	 */
+	void update(Engine engine, List<Rectangle> regions, long generation,
+			CycleDetector cycles) {
+		boolean all = regions == null || engine.getWidth() != width
+				|| engine.getHeight() != height;
+		if (all) {
+			width = engine.getWidth();
+			height = engine.getHeight();
+			perRow = (width + 63) >>> 6;
+			if (next.length != height * perRow)
+				next = new long[height * perRow];
+			if (changed.length != height) {
+				changed = new boolean[height];
+				from = new int[height];
+				to = new int[height];
+			}
+			read(engine, 0, 0, width, height);
+		} else {
+			for (Rectangle r : regions)
+				read(engine, r.x, r.y, r.width, r.height);
+		}
+
+		synchronized (this) {
+			if (all) {
+				cells.load(width, height, LongBuffer.wrap(next));
+				density.reset(width, height);
+				Arrays.fill(changed, false);
+			} else {
+				write();
+			}
+			this.generation = generation;
+			population = cycles.getPopulation();
+			period = cycles.getPeriod();
+			rowShift = cycles.getRowShift();
+			columnShift = cycles.getColumnShift();
+		}
+	}
+
+	/**
+	 * Reads the words of the engine covering a rectangle into next.
+	 */
+	private void read(Engine engine, int x, int y, int w, int h) {
+		int bottom = Math.min(y + h, height), right = Math.min(x + w, width);
+		if (x >= right)
+			return;
+		int first = x >>> 6, last = (right - 1) >>> 6;
+		for (int row = Math.max(0, y); row < bottom; row++) {
+			boolean seen = changed[row];
+			changed[row] = true;
+			int offset = row * perRow;
+			if (engine instanceof PackedEngine) { // whole rows at a time
+				if (!seen)
+					((PackedEngine) engine).getRows(row, 1,
+							LongBuffer.wrap(next, offset, perRow));
+				from[row] = 0;
+				to[row] = perRow - 1;
+				continue;
+			}
+			from[row] = seen ? Math.min(from[row], first) : first;
+			to[row] = seen ? Math.max(to[row], last) : last;
+			for (int k = first; k <= last; k++) {
+				long word = 0;
+				int end = Math.min(64, width - (k << 6));
+				for (int j = 0; j < end; j++)
+					if (engine.get(row, (k << 6) + j))
+						word |= 1L << j;
+				next[offset + k] = word;
+			}
+		}
+	}
+
+	/**
+	 * Writes the words read that differ from the cells, and tells the
+	 * density pyramid about them.
+	 */
+	private void write() {
+		for (int row = 0; row < height; row++) {
+			if (!changed[row])
+				continue;
+			changed[row] = false;
+			int offset = row * perRow;
+			for (int k = from[row]; k <= to[row]; k++) {
+				long now = next[offset + k], was = cells.getWord(row, k);
+				long diff = now ^ was;
+				if (diff == 0)
+					continue;
+				cells.flip(row, k, diff);
+				density.cellsChanged(row, (long) k << 6, now & diff, was
+						& diff);
+			}
+		}
+	}
+
+	public synchronized int getWidth() {
+		return cells.getWidth();
+	}
+
+	public synchronized int getHeight() {
+		return cells.getHeight();
+	}
+
+	/**
+	 * @return whether the cell is alive. Cells outside the grid are dead.
+	 */
+	public synchronized boolean get(int row, int column) {
+		return cells.get(row, column);
+	}
+
+	/**
+	 * Copies count packed rows, starting at the given row, into the buffer,
+	 * like PackedEngine.getRows().
+	 */
+	public synchronized void getRows(int row, int count, LongBuffer rows) {
+		cells.getRows(row, count, rows);
+	}
+
+	/**
+	 * @return the number of longs in each packed row
+	 */
+	public synchronized int getWordsPerRow() {
+		return cells.getWordsPerRow();
+	}
+
+	/**
+	 * Writes the number of live cells in each block of 2^level by 2^level
+	 * cells of the given rectangle, in blocks, into counts, a row at a time.
+	 */
+	public synchronized void getDensity(int level, int x, int y, int width,
+			int height, int[] counts) {
+		density.fill(cells, level, x, y, width, height, counts);
+	}
+
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the number of live cells, in the whole universe if the engine
+	 *         is unbounded
+	 */
+	public synchronized long getPopulation() {
+		return population;
+	}
+
+	/**
+	 * @return the period the colony was repeating with, or 0
+	 */
+	public synchronized long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return how far the colony moved each period, as {rows, columns}
+	 */
+	public synchronized long[] getDisplacement() {
+		return new long[] { rowShift, columnShift };
+	}
+}
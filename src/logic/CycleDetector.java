@@ -0,0 +1,223 @@
+package logic;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Notices when a colony has settled into a cycle: a still life, an
+ * oscillator, or a spaceship that repeats itself somewhere else.
+ * <p>
+ * The colony is hashed as the sum of A^row * B^column over its live cells,
+ * so a birth or death changes the hash by one term and the engine's change
+ * reports keep it up to date without rescanning the grid. Moving a pattern
+ * by (dr, dc) multiplies its hash by A^dr * B^dc, so after finding the
+ * displacement from the sums of the live cells' rows and columns a shifted
+ * repeat is checked with one multiplication. A window of recent hashes is
+ * searched after every step.
+ *
+ */
+public class CycleDetector implements CellChangeListener {
+
+	/** the number of recent generations compared against */
+	public static final int WINDOW = 1024;
+
+	/* odd, so they have inverses and no power of them is ever 0 */
+	private static final long A = 0x9e3779b97f4a7c15L, B = 0xc2b2ae3d27d4eb4fL;
+
+	/* the hash, population and row and column sums of the live cells */
+	private final LongAdder hash = new LongAdder(), population = new LongAdder(),
+			rowSum = new LongAdder(), columnSum = new LongAdder();
+
+	/* A^i and B^i, for the cells inside the grid */
+	private long[] rowPowers = new long[0], columnPowers = new long[0];
+
+	/* the recent generations, as a ring */
+	private long[] generations = new long[WINDOW], hashes = new long[WINDOW],
+			populations = new long[WINDOW], rowSums = new long[WINDOW],
+			columnSums = new long[WINDOW];
+	private int head, size;
+
+	private long period; // 0 until a cycle is found
+	private long rowShift, columnShift;
+
+	/**
+	 * Starts over from the engine's cells, which are scanned once.
+	 */
+	public void reset(Engine engine, long generation) {
+		if (rowPowers.length != engine.getHeight())
+			rowPowers = powers(A, engine.getHeight());
+		if (columnPowers.length != engine.getWidth())
+			columnPowers = powers(B, engine.getWidth());
+		hash.reset();
+		population.reset();
+		rowSum.reset();
+		columnSum.reset();
+		for (int row = 0; row < engine.getHeight(); row++)
+			for (int col = 0; col < engine.getWidth(); col++)
+				if (engine.get(row, col))
+					cellsChanged(row, col, 1, 0);
+		restart(generation);
+	}
+
+	/**
+	 * Forgets the earlier generations, after the cells were edited, keeping
+	 * the hash of the current ones.
+	 */
+	public void restart(long generation) {
+		size = 0;
+		period = 0;
+		record(generation);
+	}
+
+	private static long[] powers(long base, int count) {
+		long[] powers = new long[count];
+		long p = 1;
+		for (int i = 0; i < count; i++) {
+			powers[i] = p;
+			p *= base;
+		}
+		return powers;
+	}
+
+	@Override
+	public void cellsChanged(long row, long column, long born, long died) {
+		long rowKey = row >= 0 && row < rowPowers.length ? rowPowers[(int) row]
+				: power(A, row);
+		long h = 0, count = 0, columns = 0;
+		for (long bits = born | died; bits != 0; bits &= bits - 1) {
+			int j = Long.numberOfTrailingZeros(bits);
+			long col = column + j;
+			long key = rowKey
+					* (col >= 0 && col < columnPowers.length ? columnPowers[(int) col]
+							: power(B, col));
+			if ((born >>> j & 1) != 0) {
+				h += key;
+				count++;
+				columns += col;
+			} else {
+				h -= key;
+				count--;
+				columns -= col;
+			}
+		}
+		hash.add(h);
+		population.add(count);
+		rowSum.add(count * row);
+		columnSum.add(columns);
+	}
+
+	/**
+	 * @return base^exponent, wrapping around 2^64. Negative exponents use the
+	 *         inverse of the base.
+	 */
+	private static long power(long base, long exponent) {
+		if (exponent < 0) {
+			base = inverse(base);
+			exponent = -exponent;
+		}
+		long result = 1;
+		while (exponent != 0) {
+			if ((exponent & 1) != 0)
+				result *= base;
+			base *= base;
+			exponent >>>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * @return x such that x * odd == 1, wrapping around 2^64
+	 */
+	private static long inverse(long odd) {
+		long x = odd; // right to 3 bits, and each step doubles that
+		for (int i = 0; i < 5; i++)
+			x *= 2 - odd * x;
+		return x;
+	}
+
+	/**
+	 * Called after every step. Looks for an earlier generation that the
+	 * current one repeats, possibly shifted.
+	 *
+	 * @return whether a new cycle was found
+	 */
+	public boolean check(long generation) {
+		boolean wasCycling = period != 0;
+		long h = hash.sum(), pop = population.sum();
+		long rows = rowSum.sum(), columns = columnSum.sum();
+		period = 0;
+		for (int i = size - 1; i >= 0; i--) { // the most recent first
+			int j = (head + i) % WINDOW;
+			if (populations[j] != pop)
+				continue;
+			long dr = 0, dc = 0;
+			if (pop != 0) {
+				long rowMoved = rows - rowSums[j], columnMoved = columns
+						- columnSums[j];
+				if (rowMoved % pop != 0 || columnMoved % pop != 0)
+					continue;
+				dr = rowMoved / pop;
+				dc = columnMoved / pop;
+			}
+			if (hashes[j] * power(A, dr) * power(B, dc) == h) {
+				period = generation - generations[j];
+				rowShift = dr;
+				columnShift = dc;
+				break;
+			}
+		}
+		record(generation);
+		return period != 0 && !wasCycling;
+	}
+
+	private void record(long generation) {
+		int j;
+		if (size < WINDOW) {
+			j = (head + size) % WINDOW;
+			size++;
+		} else {
+			j = head;
+			head = (head + 1) % WINDOW;
+		}
+		generations[j] = generation;
+		hashes[j] = hash.sum();
+		populations[j] = population.sum();
+		rowSums[j] = rowSum.sum();
+		columnSums[j] = columnSum.sum();
+	}
+
+	/**
+	 * @return the period of the cycle the colony is in, or 0 if it isn't in
+	 *         one. 1 is a still life.
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return how many rows the colony moves down each period
+	 */
+	public long getRowShift() {
+		return rowShift;
+	}
+
+	/**
+	 * @return how many columns the colony moves right each period
+	 */
+	public long getColumnShift() {
+		return columnShift;
+	}
+
+	/**
+	 * @return the number of live cells, kept up to date from the changes
+	 */
+	public long getPopulation() {
+		return population.sum();
+	}
+
+	/**
+	 * @return the hash of the current cells
+	 */
+	public long getHash() {
+		return hash.sum();
+	}
+}
@@ -0,0 +1,225 @@
+package logic;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Counts of live cells over square blocks, for drawing a colony zoomed out.
+ * A block at level k is 2^k by 2^k cells, and each level summarises 2x2
+ * blocks of the one below, from BASE_LEVEL up to one block covering the
+ * whole grid. Levels below the base are counted from the cells when asked
+ * for, which costs at most 64 cells per block.
+ * <p>
+ * Engines report changes from their stepping threads, so a change only
+ * marks its base block; the marked blocks are recounted the next time the
+ * pyramid is read, and the difference is passed up the levels. Changes
+ * outside of the grid, which unbounded engines report, are ignored.
+ *
+ */
+public class DensityPyramid implements CellChangeListener {
+
+	/** the lowest level held: blocks of 8 by 8 cells, a byte of a word */
+	public static final int BASE_LEVEL = 3;
+
+	private int width, height; // of the grid
+	private int[][] counts = new int[0][]; // counts[level - BASE_LEVEL]
+	private int[] across = new int[0], down = new int[0]; // blocks per level
+	private boolean[] dirty = new boolean[0]; // base blocks to recount
+	private boolean[] dirtyRows = new boolean[0]; // rows of base blocks
+	private boolean all = true; // everything must be recounted
+
+	/* the rows of the blocks being counted, if the engine is packed */
+	private PackedEngine packed;
+	private long[] words = new long[0];
+	private int perRow;
+
+	/**
+	 * Sets the size of the grid and marks all of it as changed.
+	 */
+	public void reset(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int levels = 1;
+		while (blocks(width, BASE_LEVEL + levels - 1) > 1
+				|| blocks(height, BASE_LEVEL + levels - 1) > 1)
+			levels++;
+		counts = new int[levels][];
+		across = new int[levels];
+		down = new int[levels];
+		for (int l = 0; l < levels; l++) {
+			across[l] = blocks(width, BASE_LEVEL + l);
+			down[l] = blocks(height, BASE_LEVEL + l);
+			counts[l] = new int[across[l] * down[l]];
+		}
+		dirty = new boolean[across[0] * down[0]];
+		dirtyRows = new boolean[down[0]];
+		markAll();
+	}
+
+	/**
+	 * @return the number of blocks at the level needed to cover the cells
+	 */
+	public static int blocks(int cells, int level) {
+		return (int) ((cells + (1L << level) - 1) >> level);
+	}
+
+	/**
+	 * Marks the whole grid as changed, after cells were loaded.
+	 */
+	public void markAll() {
+		all = true;
+	}
+
+	@Override
+	public void cellsChanged(long row, long column, long born, long died) {
+		long bits = born | died;
+		if (all || bits == 0 || row < 0 || row >= height)
+			return;
+		long first = Math.max(0, column + Long.numberOfTrailingZeros(bits));
+		long last = Math.min(width - 1, column + 63
+				- Long.numberOfLeadingZeros(bits));
+		if (first > last)
+			return;
+		int by = (int) (row >> BASE_LEVEL), offset = by * across[0];
+		for (int bx = (int) (first >> BASE_LEVEL); bx <= last >> BASE_LEVEL; bx++)
+			dirty[offset + bx] = true; // racing writes all write true
+		dirtyRows[by] = true;
+	}
+
+	/**
+	 * Recounts the blocks that changed since the last time.
+	 */
+	private void update(Engine engine) {
+		if (engine.getWidth() != width || engine.getHeight() != height)
+			reset(engine.getWidth(), engine.getHeight());
+		if (all) {
+			rebuild(engine);
+			return;
+		}
+		int[] base = counts[0];
+		for (int by = 0; by < down[0]; by++) {
+			if (!dirtyRows[by])
+				continue;
+			dirtyRows[by] = false;
+			fetch(engine, BASE_LEVEL, by);
+			int offset = by * across[0];
+			for (int bx = 0; bx < across[0]; bx++) {
+				if (!dirty[offset + bx])
+					continue;
+				dirty[offset + bx] = false;
+				int change = countCells(engine, BASE_LEVEL, bx, by)
+						- base[offset + bx];
+				if (change != 0)
+					add(bx, by, change);
+			}
+		}
+	}
+
+	/**
+	 * Counts every base block and sums them up the levels.
+	 */
+	private void rebuild(Engine engine) {
+		int[] base = counts[0];
+		for (int by = 0; by < down[0]; by++) {
+			fetch(engine, BASE_LEVEL, by);
+			for (int bx = 0; bx < across[0]; bx++)
+				base[by * across[0] + bx] = countCells(engine, BASE_LEVEL, bx,
+						by);
+		}
+		for (int l = 1; l < counts.length; l++) {
+			int[] below = counts[l - 1], level = counts[l];
+			Arrays.fill(level, 0);
+			for (int y = 0; y < down[l - 1]; y++)
+				for (int x = 0; x < across[l - 1]; x++)
+					level[(y >> 1) * across[l] + (x >> 1)] += below[y
+							* across[l - 1] + x];
+		}
+		Arrays.fill(dirty, false);
+		Arrays.fill(dirtyRows, false);
+		all = false;
+	}
+
+	/**
+	 * Adds the change of a base block to it and the blocks above it.
+	 */
+	private void add(int bx, int by, int change) {
+		for (int l = 0; l < counts.length; l++) {
+			counts[l][by * across[l] + bx] += change;
+			bx >>= 1;
+			by >>= 1;
+		}
+	}
+
+	/**
+	 * Reads the rows of a row of blocks at or below the base level, if the
+	 * engine holds its cells packed.
+	 */
+	private void fetch(Engine engine, int level, int by) {
+		packed = engine instanceof PackedEngine ? (PackedEngine) engine : null;
+		if (packed == null)
+			return;
+		perRow = packed.getWordsPerRow();
+		int first = by << level, count = Math.min(1 << level, height - first);
+		if (words.length < perRow << level)
+			words = new long[perRow << level];
+		packed.getRows(first, count, LongBuffer.wrap(words));
+	}
+
+	/**
+	 * @return the live cells of a block at or below the base level, whose row
+	 *         was fetched
+	 */
+	private int countCells(Engine engine, int level, int bx, int by) {
+		int size = 1 << level, top = by << level, left = bx << level;
+		int rows = Math.min(size, height - top);
+		int count = 0;
+		if (packed != null) { // a block is part of one word
+			long mask = (1L << size) - 1;
+			for (int r = 0; r < rows; r++)
+				count += Long.bitCount(words[r * perRow + (left >>> 6)] >>> (left & 63)
+						& mask);
+		} else {
+			int right = Math.min(left + size, width);
+			for (int row = top; row < top + rows; row++)
+				for (int col = left; col < right; col++)
+					if (engine.get(row, col))
+						count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the live cells of a rectangle of blocks at the given level into
+	 * out, a row at a time. Blocks outside of the grid are 0.
+	 *
+	 * @param engine
+	 *            the engine whose changes the pyramid has been told about
+	 */
+	public void fill(Engine engine, int level, int x, int y, int width,
+			int height, int[] out) {
+		update(engine);
+		int l = level - BASE_LEVEL;
+		int blocksAcross = blocks(this.width, level), blocksDown = blocks(
+				this.height, level);
+		for (int j = 0; j < height; j++) {
+			int by = y + j, offset = j * width;
+			if (by < 0 || by >= blocksDown) {
+				Arrays.fill(out, offset, offset + width, 0);
+				continue;
+			}
+			if (l < 0)
+				fetch(engine, level, by);
+			for (int i = 0; i < width; i++) {
+				int bx = x + i;
+				if (bx < 0 || bx >= blocksAcross)
+					out[offset + i] = 0;
+				else if (l < 0)
+					out[offset + i] = countCells(engine, level, bx, by);
+				else if (l < counts.length)
+					out[offset + i] = counts[l][by * across[l] + bx];
+				else // above the top: one block holds everything
+					out[offset + i] = counts[counts.length - 1][0];
+			}
+		}
+	}
+}
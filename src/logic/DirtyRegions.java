@@ -0,0 +1,90 @@
+package logic;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the parts of the grid that changed, from an engine's change
+ * reports, as tiles of TILE_SIZE cells. Changes outside of the grid, which
+ * unbounded engines report, are ignored.
+ *
+ */
+public class DirtyRegions implements CellChangeListener {
+
+	/** the width and height of a tile */
+	public static final int TILE_SIZE = 32;
+
+	private int width, height; // of the grid
+	private int across, down; // tiles
+	private boolean[] dirty = new boolean[0];
+	private boolean all = true; // everything may have changed
+
+	/**
+	 * Sets the size of the grid and marks all of it as changed.
+	 */
+	public void reset(int width, int height) {
+		this.width = width;
+		this.height = height;
+		across = (width + TILE_SIZE - 1) / TILE_SIZE;
+		down = (height + TILE_SIZE - 1) / TILE_SIZE;
+		if (dirty.length != across * down)
+			dirty = new boolean[across * down];
+		markAll();
+	}
+
+	/**
+	 * Marks the whole grid as changed.
+	 */
+	public void markAll() {
+		all = true;
+	}
+
+	/**
+	 * Forgets the changes, after they were drawn.
+	 */
+	public void clear() {
+		all = false;
+		Arrays.fill(dirty, false);
+	}
+
+	@Override
+	public void cellsChanged(long row, long column, long born, long died) {
+		long bits = born | died;
+		if (all || bits == 0 || row < 0 || row >= height)
+			return;
+		long first = Math.max(0, column + Long.numberOfTrailingZeros(bits));
+		long last = Math.min(width - 1, column + 63
+				- Long.numberOfLeadingZeros(bits));
+		if (first > last)
+			return;
+		int offset = (int) (row / TILE_SIZE) * across;
+		for (int tile = (int) (first / TILE_SIZE); tile <= last / TILE_SIZE; tile++)
+			dirty[offset + tile] = true; // racing writes all write true
+	}
+
+	/**
+	 * @return the changed parts of the grid, in cells, as runs of changed
+	 *         tiles, or null if everything may have changed
+	 */
+	public List<Rectangle> getRegions() {
+		if (all)
+			return null;
+		ArrayList<Rectangle> regions = new ArrayList<Rectangle>();
+		for (int ty = 0; ty < down; ty++) {
+			int offset = ty * across;
+			for (int tx = 0; tx < across; tx++) {
+				if (!dirty[offset + tx])
+					continue;
+				int start = tx;
+				while (tx + 1 < across && dirty[offset + tx + 1])
+					tx++;
+				int x = start * TILE_SIZE, y = ty * TILE_SIZE;
+				regions.add(new Rectangle(x, y, Math.min((tx + 1) * TILE_SIZE,
+						width) - x, Math.min(y + TILE_SIZE, height) - y));
+			}
+		}
+		return regions;
+	}
+}
@@ -0,0 +1,76 @@
+package logic;
+
+/**
+ * Does the stepping for a Colony. An engine owns the cells of the colony and
+ * knows how to advance them by a generation.
+ * 
+ */
+public interface Engine {
+
+	/**
+	 * Becomes the given grid. The grid is copied so the caller may keep
+	 * using it.
+	 */
+	public void load(boolean[][] grid);
+
+	/**
+	 * advances the colony by getStepSize() generations, usually 1.
+	 */
+	public void step();
+
+	/**
+	 * @return the number of generations each step advances
+	 */
+	public long getStepSize();
+
+	/**
+	 * Sets the listener told about the cells that change in each step, or
+	 * null for none. Changes made by load() and set() are not reported.
+	 */
+	public void setCellChangeListener(CellChangeListener listener);
+
+	/**
+	 * Sets the rule the cells follow from the next step on. Engines start
+	 * with B3/S23.
+	 */
+	public void setRule(Rule rule);
+
+	public Rule getRule();
+
+	/**
+	 * Sets whether the grid wraps around, so the cells on each edge are
+	 * neighbours of those on the opposite edge, instead of everything
+	 * outside the grid being dead. Engines with no edges, which grow to fit
+	 * the pattern, ignore it.
+	 */
+	public void setToroidal(boolean toroidal);
+
+	/**
+	 * @return whether the grid wraps around
+	 */
+	public boolean isToroidal();
+
+	/**
+	 * @return whether the cell is alive. Cells outside the grid are dead.
+	 */
+	public boolean get(int row, int column);
+
+	/**
+	 * Sets the cell to the given state. Cells outside the grid are ignored.
+	 */
+	public void set(int row, int column, boolean alive);
+
+	public int getWidth();
+
+	public int getHeight();
+
+	/**
+	 * @return the number of live cells
+	 */
+	public long getPopulation();
+
+	/**
+	 * @return a copy of the colony as a 2D boolean array
+	 */
+	public boolean[][] getGrid();
+}
@@ -0,0 +1,81 @@
+package logic;
+
+/**
+ * Creates engines by name, so the GUI can offer them as a list.
+ * 
+ */
+public class Engines {
+
+	/** the names of the available engines, the default first */
+	public static final String[] NAMES = { "Array", "Bit-packed",
+			"Parallel", "Vector", "Tiled", "HashLife", "Sparse" };
+
+	private Engines() {
+	}
+
+	/**
+	 * @return a new engine of the given name holding the grid, or null if
+	 *         there is no such engine
+	 */
+	public static Engine create(String name, boolean[][] grid) {
+		if (name.equals("Array"))
+			return new ArrayEngine(grid);
+		else if (name.equals("Bit-packed"))
+			return new PackedEngine(grid);
+		else if (name.equals("Parallel"))
+			return new ParallelEngine(grid);
+		else if (name.equals("Vector"))
+			return createVector(grid);
+		else if (name.equals("Tiled"))
+			return new TiledEngine(grid);
+		else if (name.equals("HashLife"))
+			return new HashLifeEngine(grid);
+		else if (name.equals("Sparse"))
+			return new SparseEngine(grid);
+		else
+			return null;
+	}
+
+	/**
+	 * Creates a VectorEngine if the jdk.incubator.vector module is enabled
+	 * (run with --add-modules jdk.incubator.vector), otherwise a
+	 * PackedEngine. describe() tells which it was.
+	 */
+	private static Engine createVector(boolean[][] grid) {
+		try {
+			if (ModuleLayer.boot().findModule("jdk.incubator.vector")
+					.isPresent()) {
+				// loaded by name so nothing else depends on the module
+				Class<?> c = Class.forName("logic.VectorEngine");
+				return (Engine) c.getConstructor(boolean[][].class)
+						.newInstance((Object) grid);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} catch (LinkageError e) { // compiled without the module
+			e.printStackTrace();
+		}
+		return new PackedEngine(grid);
+	}
+
+	/**
+	 * @return the kind of engine, and for a VectorEngine the vectors it
+	 *         uses, as in "VectorEngine (4 lanes of 64 bits, 256-bit
+	 *         vectors)"
+	 */
+	public static String describe(Engine engine) {
+		String name = engine.getClass().getSimpleName();
+		if (!name.equals("VectorEngine"))
+			return name;
+		try { // VectorEngine is only named, as in createVector()
+			Class<?> c = engine.getClass();
+			return name + " (" + c.getMethod("getLaneCount").invoke(null)
+					+ " lanes of 64 bits, "
+					+ c.getMethod("getVectorBits").invoke(null)
+					+ "-bit vectors)";
+		} catch (ReflectiveOperationException e) {
+			return name;
+		}
+	}
+
+}
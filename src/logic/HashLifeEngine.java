@@ -0,0 +1,652 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A HashLife implementation of an engine. The universe is a quadtree whose
+ * nodes are hash-consed, so identical regions are stored once, and every node
+ * remembers its own future. Regular patterns like guns and breeders can then
+ * be advanced by huge powers of two at once.
+ * <p>
+ * The universe is unbounded: the width and height only set the window that
+ * get() and getGrid() look through. Cells outside of it keep evolving, and
+ * are found with getBounds().
+ *
+ */
+public class HashLifeEngine implements UnboundedEngine {
+
+	/** rough number of bytes used per node, including its table entry */
+	public static final int NODE_BYTES = 100;
+
+	/* changes are found a square of 2^BLOCK_LEVEL cells at a time */
+	private static final int BLOCK_LEVEL = 3;
+
+	/**
+	 * A square of 2^level cells on a side. Nodes are immutable (apart from
+	 * their memoised result) and canonical, so they compare by identity.
+	 */
+	static final class Node {
+		final int level;
+		final Node nw, ne, sw, se;
+		final long population;
+		final int hash;
+
+		/* the centre of this node, 2^resultStep generations later */
+		Node result;
+		int resultStep = -1;
+
+		Node(boolean alive) { // a single cell
+			level = 0;
+			nw = ne = sw = se = null;
+			population = alive ? 1 : 0;
+			hash = alive ? 1 : 0;
+		}
+
+		Node(Node nw, Node ne, Node sw, Node se) {
+			level = nw.level + 1;
+			this.nw = nw;
+			this.ne = ne;
+			this.sw = sw;
+			this.se = se;
+			population = nw.population + ne.population + sw.population
+					+ se.population;
+			int h = System.identityHashCode(nw);
+			h = h * 31 + System.identityHashCode(ne);
+			h = h * 31 + System.identityHashCode(sw);
+			h = h * 31 + System.identityHashCode(se);
+			hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Node))
+				return false;
+			Node n = (Node) o;
+			return nw == n.nw && ne == n.ne && sw == n.sw && se == n.se;
+		}
+	}
+
+	private final Node dead = new Node(false), alive = new Node(true);
+	private HashMap<Node, Node> nodes = new HashMap<Node, Node>();
+	private ArrayList<Node> empties = new ArrayList<Node>(); // by level
+
+	/* the next generation of every 4x4 square, as 4 bits for the 2x2 centre */
+	private final byte[] table = new byte[1 << 16];
+
+	private Node root;
+	private long originRow, originColumn; // where the root's top left is
+	private int width, height; // the window onto the universe
+	private int stepExponent; // each step is 2^stepExponent generations
+	private long maxNodes, collectAt; // collect() once there are collectAt
+
+	private CellChangeListener listener;
+	private Rule rule = Rule.CONWAY;
+	private long[] blockBefore = new long[1 << BLOCK_LEVEL],
+			blockAfter = new long[1 << BLOCK_LEVEL];
+
+	public HashLifeEngine(boolean[][] grid) {
+		buildTable();
+		setMemoryLimit(Runtime.getRuntime().maxMemory() / 4);
+		load(grid);
+	}
+
+	/**
+	 * Fills the lookup table used for the 4x4 base case. Bit (row * 4 + col)
+	 * of the index is the cell at (row, col).
+	 */
+	private void buildTable() {
+		for (int cells = 0; cells < table.length; cells++) {
+			int result = 0;
+			for (int i = 0; i < 4; i++) {
+				int row = 1 + i / 2, col = 1 + i % 2;
+				int neighbours = 0;
+				for (int r = row - 1; r <= row + 1; r++)
+					for (int c = col - 1; c <= col + 1; c++)
+						if ((r != row || c != col)
+								&& (cells >>> (r * 4 + c) & 1) != 0)
+							neighbours++;
+				boolean isAlive = (cells >>> (row * 4 + col) & 1) != 0;
+
+				if (rule.next(isAlive, neighbours))
+					result |= 1 << i;
+			}
+			table[cells] = (byte) result;
+		}
+	}
+
+	/**
+	 * Changes the rule, forgetting every result worked out under the old one.
+	 */
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = rule;
+		buildTable();
+		if (root != null)
+			collect(false);
+	}
+
+	@Override
+	public Rule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Does nothing: the universe has no edges to wrap around.
+	 */
+	@Override
+	public void setToroidal(boolean toroidal) {
+	}
+
+	@Override
+	public boolean isToroidal() {
+		return false;
+	}
+
+	/**
+	 * Limits the memory used by nodes and memoised results. When the limit is
+	 * passed, everything not needed by the current universe is thrown away,
+	 * in the middle of a step if need be: the nodes the step is working on
+	 * are still held by it, they just can't be shared any more. The results
+	 * of the nodes kept are kept too, while those nodes take up no more than
+	 * half the limit.
+	 */
+	public void setMemoryLimit(long bytes) {
+		maxNodes = Math.max(1024, bytes / NODE_BYTES);
+		collectAt = maxNodes;
+	}
+
+	/**
+	 * Sets how far each step jumps: 2^exponent generations.
+	 */
+	public void setStepExponent(int exponent) {
+		if (exponent < 0 || exponent > 60)
+			throw new IllegalArgumentException("exponent: " + exponent);
+		stepExponent = exponent;
+	}
+
+	public int getStepExponent() {
+		return stepExponent;
+	}
+
+	@Override
+	public long getStepSize() {
+		return 1L << stepExponent;
+	}
+
+	@Override
+	public void setCellChangeListener(CellChangeListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the number of distinct nodes currently stored
+	 */
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * @return the canonical node with the given quadrants
+	 */
+	private Node join(Node nw, Node ne, Node sw, Node se) {
+		Node n = new Node(nw, ne, sw, se);
+		Node canonical = nodes.get(n);
+		if (canonical != null)
+			return canonical;
+		nodes.put(n, n);
+		return n;
+	}
+
+	/**
+	 * @return an empty node of the given level
+	 */
+	private Node empty(int level) {
+		if (empties.isEmpty())
+			empties.add(dead);
+		while (empties.size() <= level) {
+			Node e = empties.get(empties.size() - 1);
+			empties.add(join(e, e, e, e));
+		}
+		return empties.get(level);
+	}
+
+	@Override
+	public void load(boolean[][] grid) {
+		height = grid.length;
+		width = height == 0 ? 0 : grid[0].length;
+		int level = 3;
+		while ((1L << level) < Math.max(width, height))
+			level++;
+		root = build(grid, level, 0, 0);
+		originRow = 0;
+		originColumn = 0;
+	}
+
+	/**
+	 * @return the node of the given level whose top left is (row, col) in the
+	 *         grid
+	 */
+	private Node build(boolean[][] grid, int level, int row, int col) {
+		if (row >= height || col >= width)
+			return empty(level);
+		if (level == 0)
+			return grid[row][col] ? alive : dead;
+		int half = 1 << (level - 1);
+		return join(build(grid, level - 1, row, col),
+				build(grid, level - 1, row, col + half),
+				build(grid, level - 1, row + half, col),
+				build(grid, level - 1, row + half, col + half));
+	}
+
+	/**
+	 * Doubles the size of the root, keeping it centred.
+	 */
+	private void expand() {
+		Node e = empty(root.level - 1);
+		originRow -= 1L << (root.level - 1);
+		originColumn -= 1L << (root.level - 1);
+		root = join(join(e, e, e, root.nw), join(e, e, root.ne, e),
+				join(e, root.sw, e, e), join(root.se, e, e, e));
+	}
+
+	/**
+	 * @return whether all the live cells of the node are in its central
+	 *         quarter, so its result holds the whole future of its cells
+	 */
+	private static boolean padded(Node n) {
+		return n.nw.population == n.nw.se.se.population
+				&& n.ne.population == n.ne.sw.sw.population
+				&& n.sw.population == n.sw.ne.ne.population
+				&& n.se.population == n.se.nw.nw.population;
+	}
+
+	/**
+	 * advances the universe by 2^stepExponent generations.
+	 */
+	@Override
+	public void step() {
+		Node before = root;
+		long beforeRow = originRow, beforeColumn = originColumn;
+
+		while (root.level < stepExponent + 2 || !padded(root))
+			expand();
+		expand();
+		long shift = 1L << (root.level - 2);
+		root = successor(root, stepExponent);
+		originRow += shift;
+		originColumn += shift;
+
+		if (listener != null)
+			reportChanges(before, beforeRow, beforeColumn);
+		if (nodes.size() > collectAt)
+			collect(true);
+	}
+
+	/**
+	 * Tells the listener which cells differ between the universe before the
+	 * step and now. Nodes are canonical, so a region that didn't change is
+	 * the same node in both and is skipped without looking inside it.
+	 */
+	private void reportChanges(Node before, long beforeRow, long beforeColumn) {
+		// squares two levels below the smaller root are aligned to their size
+		// in both universes, so they can be matched up by position
+		int level = Math.min(before.level, root.level) - 2;
+		HashMap<Square, Node> old = new HashMap<Square, Node>();
+		squares(before, beforeRow, beforeColumn, level, old);
+		HashMap<Square, Node> now = new HashMap<Square, Node>();
+		squares(root, originRow, originColumn, level, now);
+
+		for (Map.Entry<Square, Node> e : now.entrySet()) {
+			Node was = old.remove(e.getKey());
+			diff(was == null ? empty(level) : was, e.getValue(),
+					e.getKey().row, e.getKey().column);
+		}
+		for (Map.Entry<Square, Node> e : old.entrySet()) // died out
+			diff(e.getValue(), empty(level), e.getKey().row,
+					e.getKey().column);
+	}
+
+	/**
+	 * The position of a square of cells in the universe.
+	 */
+	private static final class Square {
+		final long row, column;
+
+		Square(long row, long column) {
+			this.row = row;
+			this.column = column;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(row * 31 + column);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Square))
+				return false;
+			Square s = (Square) o;
+			return row == s.row && column == s.column;
+		}
+	}
+
+	/**
+	 * Puts every non-empty node of the given level under n into the map.
+	 */
+	private static void squares(Node n, long row, long col, int level,
+			HashMap<Square, Node> out) {
+		if (n.population == 0)
+			return;
+		if (n.level == level) {
+			out.put(new Square(row, col), n);
+			return;
+		}
+		long half = 1L << (n.level - 1);
+		squares(n.nw, row, col, level, out);
+		squares(n.ne, row, col + half, level, out);
+		squares(n.sw, row + half, col, level, out);
+		squares(n.se, row + half, col + half, level, out);
+	}
+
+	/**
+	 * Reports the differences between two nodes of the same level at (row,
+	 * col).
+	 */
+	private void diff(Node a, Node b, long row, long col) {
+		if (a == b)
+			return;
+		if (a.level <= BLOCK_LEVEL) { // compare the rows cell by cell
+			int size = 1 << a.level;
+			Arrays.fill(blockBefore, 0);
+			Arrays.fill(blockAfter, 0);
+			bits(a, blockBefore, 0, 0);
+			bits(b, blockAfter, 0, 0);
+			for (int i = 0; i < size; i++)
+				if (blockBefore[i] != blockAfter[i])
+					listener.cellsChanged(row + i, col, blockAfter[i]
+							& ~blockBefore[i], blockBefore[i] & ~blockAfter[i]);
+			return;
+		}
+		long half = 1L << (a.level - 1);
+		diff(a.nw, b.nw, row, col);
+		diff(a.ne, b.ne, row, col + half);
+		diff(a.sw, b.sw, row + half, col);
+		diff(a.se, b.se, row + half, col + half);
+	}
+
+	/**
+	 * Sets the bits of the node's live cells in rows, bit c of rows[r] being
+	 * the cell at (r, c) of the node.
+	 */
+	private static void bits(Node n, long[] rows, int r, int c) {
+		if (n.population == 0)
+			return;
+		if (n.level == 0) {
+			rows[r] |= 1L << c;
+			return;
+		}
+		int half = 1 << (n.level - 1);
+		bits(n.nw, rows, r, c);
+		bits(n.ne, rows, r, c + half);
+		bits(n.sw, rows, r + half, c);
+		bits(n.se, rows, r + half, c + half);
+	}
+
+	/**
+	 * @return the centre of the node, 2^step generations later
+	 */
+	private Node successor(Node m, int step) {
+		if (m.population == 0)
+			return m.nw;
+		if (m.level == 2)
+			return base(m);
+
+		step = Math.min(step, m.level - 2);
+		if (m.resultStep == step)
+			return m.result;
+		if (nodes.size() > collectAt) // the step keeps what it is working on
+			collect(true);
+
+		// nine overlapping sub-squares, each advanced by up to half the time
+		Node c1 = successor(m.nw, step);
+		Node c2 = successor(join(m.nw.ne, m.ne.nw, m.nw.se, m.ne.sw), step);
+		Node c3 = successor(m.ne, step);
+		Node c4 = successor(join(m.nw.sw, m.nw.se, m.sw.nw, m.sw.ne), step);
+		Node c5 = successor(join(m.nw.se, m.ne.sw, m.sw.ne, m.se.nw), step);
+		Node c6 = successor(join(m.ne.sw, m.ne.se, m.se.nw, m.se.ne), step);
+		Node c7 = successor(m.sw, step);
+		Node c8 = successor(join(m.sw.ne, m.se.nw, m.sw.se, m.se.sw), step);
+		Node c9 = successor(m.se, step);
+
+		Node result;
+		if (step < m.level - 2) { // already far enough, take the centres
+			result = join(join(c1.se, c2.sw, c4.ne, c5.nw),
+					join(c2.se, c3.sw, c5.ne, c6.nw),
+					join(c4.se, c5.sw, c7.ne, c8.nw),
+					join(c5.se, c6.sw, c8.ne, c9.nw));
+		} else { // advance the other half of the time
+			result = join(successor(join(c1, c2, c4, c5), step),
+					successor(join(c2, c3, c5, c6), step),
+					successor(join(c4, c5, c7, c8), step),
+					successor(join(c5, c6, c8, c9), step));
+		}
+		m.result = result;
+		m.resultStep = step;
+		return result;
+	}
+
+	/**
+	 * @return the 2x2 centre of a 4x4 node one generation later
+	 */
+	private Node base(Node m) {
+		int cells = bits(m.nw, 0, 0) | bits(m.ne, 0, 2) | bits(m.sw, 2, 0)
+				| bits(m.se, 2, 2);
+		int result = table[cells];
+		return join((result & 1) != 0 ? alive : dead,
+				(result & 2) != 0 ? alive : dead,
+				(result & 4) != 0 ? alive : dead,
+				(result & 8) != 0 ? alive : dead);
+	}
+
+	/**
+	 * @return the cells of a 2x2 node as bits of a 4x4 table index
+	 */
+	private static int bits(Node n, int row, int col) {
+		int i = row * 4 + col;
+		return (int) (n.nw.population << i | n.ne.population << (i + 1)
+				| n.sw.population << (i + 4) | n.se.population << (i + 5));
+	}
+
+	/**
+	 * Throws away every node the current universe does not use. The results
+	 * of the nodes it uses are kept, with the nodes they lead to, since the
+	 * next steps will mostly ask for them again; unless results is false, or
+	 * the nodes in use take up more than half the room.
+	 */
+	private void collect(boolean results) {
+		nodes = new HashMap<Node, Node>();
+		for (int i = 1; i < empties.size(); i++)
+			keep(empties.get(i), false);
+		keep(root, false);
+
+		ArrayList<Node> used = new ArrayList<Node>(nodes.values());
+		results &= used.size() <= maxNodes / 2;
+		for (Node n : used) {
+			if (!results) {
+				n.result = null;
+				n.resultStep = -1;
+			} else if (n.result != null) {
+				keep(n.result, true);
+			}
+		}
+		// at least a quarter of the room to fill before the next collect()
+		collectAt = Math.max(maxNodes, nodes.size() + maxNodes / 4);
+	}
+
+	/**
+	 * Puts the node and everything under it back in the table.
+	 *
+	 * @param forget
+	 *            whether to drop the results of the nodes put back, whose
+	 *            own results are not kept
+	 */
+	private void keep(Node n, boolean forget) {
+		if (n.level == 0 || nodes.containsKey(n))
+			return;
+		if (forget) {
+			n.result = null;
+			n.resultStep = -1;
+		}
+		nodes.put(n, n);
+		keep(n.nw, forget);
+		keep(n.ne, forget);
+		keep(n.sw, forget);
+		keep(n.se, forget);
+	}
+
+	@Override
+	public boolean get(int row, int column) {
+		if (row < 0 || row >= height || column < 0 || column >= width)
+			return false;
+		long r = row - originRow, c = column - originColumn;
+		long size = 1L << root.level;
+		if (r < 0 || r >= size || c < 0 || c >= size)
+			return false;
+
+		Node n = root;
+		while (n.level > 0 && n.population > 0) {
+			long half = 1L << (n.level - 1);
+			if (r < half)
+				n = c < half ? n.nw : n.ne;
+			else
+				n = c < half ? n.sw : n.se;
+			r %= half;
+			c %= half;
+		}
+		return n.population > 0;
+	}
+
+	@Override
+	public void set(int row, int column, boolean isAlive) {
+		if (row < 0 || row >= height || column < 0 || column >= width)
+			return;
+		while (row < originRow || row >= originRow + (1L << root.level)
+				|| column < originColumn
+				|| column >= originColumn + (1L << root.level))
+			expand();
+		root = set(root, row - originRow, column - originColumn, isAlive);
+	}
+
+	/**
+	 * @return a copy of the node with the cell changed
+	 */
+	private Node set(Node n, long r, long c, boolean isAlive) {
+		if (n.level == 0)
+			return isAlive ? alive : dead;
+		long half = 1L << (n.level - 1);
+		Node nw = n.nw, ne = n.ne, sw = n.sw, se = n.se;
+		if (r < half && c < half)
+			nw = set(nw, r, c, isAlive);
+		else if (r < half)
+			ne = set(ne, r, c - half, isAlive);
+		else if (c < half)
+			sw = set(sw, r - half, c, isAlive);
+		else
+			se = set(se, r - half, c - half, isAlive);
+		return join(nw, ne, sw, se);
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the number of live cells in the whole universe, including those
+	 *         outside the window
+	 */
+	@Override
+	public long getPopulation() {
+		return root.population;
+	}
+
+	@Override
+	public boolean[][] getGrid() {
+		return getGrid(0, 0, height, width);
+	}
+
+	@Override
+	public boolean[][] getGrid(long top, long left, int height, int width) {
+		boolean[][] grid = new boolean[height][width];
+		fill(grid, width, root, originRow - top, originColumn - left);
+		return grid;
+	}
+
+	/**
+	 * Copies the live cells of the node at (row, col) into the grid.
+	 */
+	private static void fill(boolean[][] grid, int width, Node n, long row,
+			long col) {
+		long size = 1L << n.level;
+		if (n.population == 0 || row >= grid.length || col >= width
+				|| row + size <= 0 || col + size <= 0)
+			return;
+		if (n.level == 0) {
+			grid[(int) row][(int) col] = true;
+			return;
+		}
+		long half = size >>> 1;
+		fill(grid, width, n.nw, row, col);
+		fill(grid, width, n.ne, row, col + half);
+		fill(grid, width, n.sw, row + half, col);
+		fill(grid, width, n.se, row + half, col + half);
+	}
+
+	@Override
+	public long[] getBounds() {
+		if (root.population == 0)
+			return null;
+		long[] b = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE,
+				Long.MIN_VALUE };
+		bounds(root, originRow, originColumn, b);
+		return new long[] { b[0], b[1], b[2] - b[0] + 1, b[3] - b[1] + 1 };
+	}
+
+	/**
+	 * Widens b, as {top, left, bottom, right}, to take in the live cells of
+	 * the node at (row, col). Nodes already inside b are skipped, so a
+	 * pattern repeated all over the universe isn't walked cell by cell.
+	 */
+	private static void bounds(Node n, long row, long col, long[] b) {
+		long size = 1L << n.level;
+		if (n.population == 0 || row >= b[0] && col >= b[1]
+				&& row + size - 1 <= b[2] && col + size - 1 <= b[3])
+			return;
+		if (n.level == 0) {
+			b[0] = Math.min(b[0], row);
+			b[1] = Math.min(b[1], col);
+			b[2] = Math.max(b[2], row);
+			b[3] = Math.max(b[3], col);
+			return;
+		}
+		long half = size >>> 1;
+		bounds(n.nw, row, col, b);
+		bounds(n.ne, row, col + half, b);
+		bounds(n.sw, row + half, col, b);
+		bounds(n.se, row + half, col + half, b);
+	}
+}
@@ -0,0 +1,646 @@
+package logic;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A bounded history of generations, built from the changes the engine
+ * reports, so recording a generation costs as much as the cells that
+ * changed in it, not a copy of the grid.
+ * <p>
+ * The history is a base generation and a log of frames, one for each
+ * generation after it. A frame holds the words (64 cells of a row) that
+ * differ between its generation and the one two frames before it, and the
+ * XOR of each: most settled debris is blinkers and other period 2
+ * oscillators, which then cost nothing. Alongside, the history keeps the
+ * change into the current generation, so it can walk the frames from the
+ * cells the engine holds in either direction, two generations a frame, and
+ * the change into the base, which the first frame is relative to.
+ * <p>
+ * So that a seek costs about the same however far it goes, the history also
+ * takes keyframes: a full copy of a generation and the change into it,
+ * whenever the frames logged since the last one hold KEYFRAME_SPACING times
+ * the words of the grid. A seek starts from the current generation or from
+ * the keyframe it can walk from most cheaply, so it flips at most about
+ * twice that many words, besides comparing a keyframe with the engine. The
+ * keyframes take roughly a sixth of the memory the frames do.
+ * <p>
+ * When the history passes its memory limit the oldest generations are
+ * thrown away, then those after the current one. Unbounded engines have no
+ * history, since holding their universe would mean copying it.
+ *
+ */
+public class History implements CellChangeListener {
+
+	/** rough bytes used by each word in a frame */
+	private static final int ENTRY_BYTES = 12;
+
+	/** rough bytes used by a frame besides its words */
+	private static final int FRAME_BYTES = 16;
+
+	/** the words of the grid logged between keyframes, as a multiple */
+	public static final int KEYFRAME_SPACING = 4;
+
+	/**
+	 * A full copy of a generation, which a seek can start from.
+	 */
+	private static final class Keyframe {
+		long generation;
+		long position; // the end of the log when it was taken
+		long[] cells = new long[0]; // packed rows
+		int[] keys = new int[64]; // the change into it: words and XORs
+		long[] bits = new long[64];
+		int count;
+
+		long bytes() {
+			return cells.length * 8L + keys.length * 12L;
+		}
+	}
+
+	/**
+	 * A set of words of the grid with bits flipped, held densely so words can
+	 * be XORed in place, with a list of the words touched. Reused from
+	 * generation to generation.
+	 */
+	private static final class Flips {
+		long[] words = new long[0];
+		boolean[] listed = new boolean[0]; // whether the word is in keys
+		int[] keys = new int[64];
+		int count, compacted; // listed, and listed after compact()
+
+		void resize(int size) {
+			if (words.length != size) {
+				words = new long[size];
+				listed = new boolean[size];
+				count = 0;
+			} else {
+				gather(); // whatever was collected
+				clear();
+			}
+		}
+
+		void xor(int key, long bits) {
+			words[key] ^= bits;
+			if (!listed[key]) {
+				listed[key] = true;
+				if (count == keys.length)
+					keys = Arrays.copyOf(keys, count * 2);
+				keys[count++] = key;
+			}
+		}
+
+		/**
+		 * Like xor() for the changes reported by an engine, which may come
+		 * from several threads at once. Engines split the grid between
+		 * threads by rows, so two threads never write the same word. The
+		 * words are listed by gather().
+		 */
+		void collect(int key, long bits) {
+			words[key] ^= bits;
+			listed[key] = true; // racing writes all write true
+		}
+
+		/**
+		 * Lists the words given to collect().
+		 */
+		void gather() {
+			count = 0;
+			for (int key = 0; key < listed.length; key++)
+				if (listed[key]) {
+					if (count == keys.length)
+						keys = Arrays.copyOf(keys, count * 2);
+					keys[count++] = key;
+				}
+		}
+
+		/**
+		 * Drops the words that have flipped back to nothing from the list.
+		 */
+		void compact() {
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				int key = keys[i];
+				if (words[key] != 0)
+					keys[n++] = key;
+				else
+					listed[key] = false;
+			}
+			count = compacted = n;
+		}
+
+		/**
+		 * Compacts the list if it has grown well past the words in it.
+		 */
+		void tidy() {
+			if (count > 2 * compacted + 64)
+				compact();
+		}
+
+		/**
+		 * Empties the set. Words given to collect() must have been gathered.
+		 */
+		void clear() {
+			for (int i = 0; i < count; i++) {
+				words[keys[i]] = 0;
+				listed[keys[i]] = false;
+			}
+			count = 0;
+		}
+
+		long bytes() {
+			return words.length * 9L + keys.length * 4L;
+		}
+	}
+
+	/* the log of frames' words: the word's index and the XOR of its bits */
+	private int[] keys = new int[1024];
+	private long[] bits = new long[1024];
+	private long start, end; // positions of the oldest and after the newest
+
+	/* the frames, oldest first, as a ring */
+	private long[] generations = new long[64];
+	private long[] ends = new long[64]; // the position after each frame
+	private int head, frames;
+
+	private long base; // the generation before the first frame
+	private int cursor; // the frames at or before the current generation
+	private int width, height, perRow; // 0 if there is no history
+
+	private Flips step = new Flips(); // reported since the last record
+	private Flips last = new Flips(); // the change into the current one
+	private final Flips first = new Flips(); // the change into the base
+	private final Flips net = new Flips(); // what a seek flips
+	private final ArrayList<Keyframe> keyframes = new ArrayList<Keyframe>(); // oldest first
+	private Keyframe spare; // the last one thrown away, for reuse
+	private long maxBytes;
+
+	public History(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Sets the memory the history may use, throwing away generations if it
+	 * is already using more.
+	 */
+	public void setMemoryLimit(long bytes) {
+		maxBytes = bytes;
+		evict();
+	}
+
+	public long getMemoryLimit() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return roughly how many bytes the history is using
+	 */
+	public long getMemoryUsed() {
+		long bytes = (end - start) * ENTRY_BYTES + frames * (long) FRAME_BYTES
+				+ step.bytes() + last.bytes() + first.bytes() + net.bytes();
+		for (Keyframe k : keyframes)
+			bytes += k.bytes();
+		return bytes;
+	}
+
+	/**
+	 * Forgets everything and starts again from the engine's cells as the
+	 * given generation.
+	 */
+	public void clear(Engine engine, long generation) {
+		if (engine instanceof UnboundedEngine) {
+			width = height = perRow = 0;
+		} else {
+			width = engine.getWidth();
+			height = engine.getHeight();
+			perRow = (width + 63) >>> 6;
+		}
+		int size = perRow * height;
+		step.resize(size);
+		last.resize(size);
+		first.resize(size);
+		net.resize(size);
+		start = end = 0;
+		head = frames = cursor = 0;
+		base = generation;
+		keyframes.clear();
+		spare = null;
+	}
+
+	/**
+	 * @return the number of generations held
+	 */
+	public int size() {
+		return perRow == 0 ? 0 : frames + 1;
+	}
+
+	/**
+	 * @return the oldest generation held, or -1 if there are none
+	 */
+	public long getOldest() {
+		return size() == 0 ? -1 : base;
+	}
+
+	/**
+	 * @return the newest generation held, or -1 if there are none
+	 */
+	public long getNewest() {
+		return size() == 0 ? -1 : generation(frames);
+	}
+
+	/**
+	 * @return the generation after the given number of frames
+	 */
+	private long generation(int frame) {
+		return frame == 0 ? base : generations[(head + frame - 1)
+				% generations.length];
+	}
+
+	/**
+	 * @return the position of the first word of the frame, counting from 1
+	 */
+	private long start(int frame) {
+		return frame == 1 ? start : ends[(head + frame - 2) % ends.length];
+	}
+
+	private long end(int frame) {
+		return ends[(head + frame - 1) % ends.length];
+	}
+
+	/**
+	 * Collects the cells an engine changed, until record() is called.
+	 */
+	@Override
+	public void cellsChanged(long row, long column, long born, long died) {
+		long flipped = born | died;
+		if (row < 0 || row >= height || column >= width || column <= -64)
+			return;
+		if (column < 0) {
+			flipped >>>= -column;
+			column = 0;
+		}
+		int key = (int) row * perRow + (int) (column >>> 6);
+		int shift = (int) (column & 63);
+		step.collect(key, flipped << shift);
+		if (shift != 0 && (flipped >>> (64 - shift)) != 0
+				&& (column >>> 6) + 1 < perRow)
+			step.collect(key + 1, flipped >>> (64 - shift));
+	}
+
+	/**
+	 * Records the cells changed since the last call as the given generation,
+	 * which the engine holds. If it is the current generation the cells were
+	 * edited, and the edits are kept with it. Either way the generations
+	 * after the current one are forgotten.
+	 */
+	public void record(Engine engine, long generation) {
+		step.gather();
+		if (perRow == 0) {
+			step.clear();
+			return;
+		}
+		// nothing after the current generation applies any more
+		end = cursor == 0 ? start : end(cursor);
+		frames = cursor;
+		dropKeyframes(generation(cursor), false);
+
+		if (generation == generation(cursor)) { // edits
+			dropKeyframes(generation, true); // its copy is out of date
+			ensure(step.count); // which may throw away the current frame
+			for (int i = 0; i < step.count; i++) {
+				int key = step.keys[i];
+				long edit = step.words[key];
+				if (edit == 0)
+					continue;
+				last.xor(key, edit);
+				if (cursor == 0)
+					first.xor(key, edit);
+				else
+					append(key, edit);
+			}
+			if (cursor > 0)
+				ends[(head + frames - 1) % ends.length] = end;
+			step.clear();
+			last.compact();
+			first.tidy();
+			evict();
+			return;
+		}
+
+		// the frame: this change XOR the one into the generation before
+		ensure(step.count + last.count);
+		for (int i = 0; i < step.count; i++) {
+			int key = step.keys[i];
+			long x = step.words[key] ^ last.words[key];
+			if (x != 0)
+				append(key, x);
+		}
+		for (int i = 0; i < last.count; i++) {
+			int key = last.keys[i];
+			if (!step.listed[key] && last.words[key] != 0)
+				append(key, last.words[key]);
+		}
+		// and this change becomes the one into the current generation
+		Flips empty = last;
+		empty.clear();
+		last = step;
+		last.compact();
+		step = empty;
+		addFrame(generation);
+		long since = keyframes.isEmpty() ? start
+				: keyframes.get(keyframes.size() - 1).position;
+		if (end - since >= (long) KEYFRAME_SPACING * perRow * height)
+			addKeyframe(engine, generation);
+		evict();
+	}
+
+	/**
+	 * Copies the engine's cells and the change into them as a keyframe.
+	 */
+	private void addKeyframe(Engine engine, long generation) {
+		Keyframe k = spare != null ? spare : new Keyframe();
+		spare = null;
+		k.generation = generation;
+		k.position = end;
+		if (k.cells.length != perRow * height)
+			k.cells = new long[perRow * height];
+		if (engine instanceof PackedEngine) {
+			((PackedEngine) engine).getRows(0, height, LongBuffer.wrap(k.cells));
+		} else {
+			for (int row = 0; row < height; row++)
+				for (int i = 0; i < perRow; i++)
+					k.cells[row * perRow + i] = read(engine, row, i);
+		}
+		if (k.keys.length < last.count) {
+			k.keys = new int[last.count];
+			k.bits = new long[last.count];
+		}
+		k.count = last.count;
+		for (int i = 0; i < last.count; i++) {
+			k.keys[i] = last.keys[i];
+			k.bits[i] = last.words[last.keys[i]];
+		}
+		keyframes.add(k);
+	}
+
+	/**
+	 * Throws away the keyframes after the given generation, or at it too.
+	 */
+	private void dropKeyframes(long generation, boolean at) {
+		for (int i = keyframes.size() - 1; i >= 0; i--) {
+			long g = keyframes.get(i).generation;
+			if (g < generation || !at && g == generation)
+				break;
+			spare = keyframes.remove(i);
+		}
+	}
+
+	/**
+	 * @return word k of the row of the engine
+	 */
+	private long read(Engine engine, int row, int k) {
+		if (engine instanceof PackedEngine)
+			return ((PackedEngine) engine).getWord(row, k);
+		long word = 0;
+		int end = Math.min(64, width - (k << 6));
+		for (int j = 0; j < end; j++)
+			if (engine.get(row, (k << 6) + j))
+				word |= 1L << j;
+		return word;
+	}
+
+	/**
+	 * Makes room in the log for more words, throwing away old generations if
+	 * growing it would go over the limit.
+	 */
+	private void ensure(int more) {
+		while (end - start + more > keys.length) {
+			if ((end - start) == 0 || 2L * keys.length * ENTRY_BYTES <= maxBytes
+					|| !evictOne()) {
+				grow(end - start + more);
+				return;
+			}
+		}
+	}
+
+	private void grow(long needed) {
+		int capacity = keys.length;
+		while (capacity < needed)
+			capacity *= 2;
+		int[] newKeys = new int[capacity];
+		long[] newBits = new long[capacity];
+		for (long p = start; p < end; p++) {
+			newKeys[(int) (p & (capacity - 1))] = keys[(int) (p & (keys.length - 1))];
+			newBits[(int) (p & (capacity - 1))] = bits[(int) (p & (keys.length - 1))];
+		}
+		keys = newKeys;
+		bits = newBits;
+	}
+
+	private void append(int key, long x) {
+		int i = (int) (end & (keys.length - 1));
+		keys[i] = key;
+		bits[i] = x;
+		end++;
+	}
+
+	private void addFrame(long generation) {
+		if (frames == generations.length) { // grow the ring
+			long[] g = new long[frames * 2], e = new long[frames * 2];
+			for (int i = 0; i < frames; i++) {
+				g[i] = generations[(head + i) % frames];
+				e[i] = ends[(head + i) % frames];
+			}
+			generations = g;
+			ends = e;
+			head = 0;
+		}
+		generations[(head + frames) % generations.length] = generation;
+		ends[(head + frames) % ends.length] = end;
+		frames++;
+		cursor = frames;
+	}
+
+	/**
+	 * Throws away generations until the limit is met, the oldest first and
+	 * then those after the current one. The current generation is always
+	 * kept.
+	 */
+	private void evict() {
+		while (getMemoryUsed() > maxBytes && evictOne())
+			;
+	}
+
+	/**
+	 * Throws away the oldest generation, or failing that the newest.
+	 *
+	 * @return false if only the current generation is held
+	 */
+	private boolean evictOne() {
+		if (cursor > 0) { // the change into the new base is kept instead
+			xorFrame(1, first);
+			first.tidy();
+			start = end(1);
+			base = generation(1);
+			head = (head + 1) % generations.length;
+			frames--;
+			cursor--;
+			while (!keyframes.isEmpty() && keyframes.get(0).generation < base)
+				spare = keyframes.remove(0);
+			return true;
+		}
+		if (frames > 0) { // the newest, after the current generation
+			frames--;
+			end = frames == 0 ? start : end(frames);
+			dropKeyframes(generation(frames), false);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the position of the newest frame no newer than the generation,
+	 *         0 for the base, or -1 if all of them are newer
+	 */
+	private int find(long generation) {
+		if (size() == 0 || generation < base)
+			return -1;
+		int low = 1, high = frames, found = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (generation(mid) <= generation) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the generation that seek() would go to: the newest one held no
+	 *         newer than the given one, or -1 if there is none
+	 */
+	public long floor(long generation) {
+		int i = find(generation);
+		return i < 0 ? -1 : generation(i);
+	}
+
+	/**
+	 * Flips into the set the words of the frame.
+	 */
+	private void xorFrame(int frame, Flips into) {
+		for (long p = start(frame), to = end(frame); p < to; p++) {
+			int i = (int) (p & (keys.length - 1));
+			into.xor(keys[i], bits[i]);
+		}
+	}
+
+	/**
+	 * Puts a generation into the engine, which must hold the current one,
+	 * by flipping the cells that differ. Like set(), the flips are not
+	 * reported to the engine's listener.
+	 *
+	 * @return false if the generation is not held
+	 */
+	public boolean seek(Engine engine, long generation) {
+		int target = find(generation);
+		if (target < 0 || generation(target) != generation)
+			return false;
+		step.gather(); // anything unrecorded is lost with the generation
+		step.clear();
+		Keyframe from = nearest(target);
+		if (from != null) { // start from it instead
+			for (int row = 0, key = 0; row < height; row++)
+				for (int i = 0; i < perRow; i++, key++) {
+					long x = read(engine, row, i) ^ from.cells[key];
+					if (x != 0)
+						net.xor(key, x);
+				}
+			last.clear();
+			for (int i = 0; i < from.count; i++)
+				last.xor(from.keys[i], from.bits[i]);
+			cursor = find(from.generation);
+		}
+		if ((cursor - target) % 2 != 0) { // one generation, then pairs
+			if (target < cursor) {
+				for (int i = 0; i < last.count; i++)
+					net.xor(last.keys[i], last.words[last.keys[i]]);
+				xorFrame(cursor--, last);
+			} else {
+				xorFrame(++cursor, last);
+				for (int i = 0; i < last.count; i++)
+					net.xor(last.keys[i], last.words[last.keys[i]]);
+			}
+		}
+		for (; cursor > target; cursor -= 2) {
+			xorFrame(cursor, net);
+			xorFrame(cursor, last);
+			xorFrame(cursor - 1, last);
+		}
+		for (; cursor < target; cursor += 2) {
+			xorFrame(cursor + 2, net);
+			xorFrame(cursor + 1, last);
+			xorFrame(cursor + 2, last);
+		}
+		last.compact();
+		flip(engine);
+		return true;
+	}
+
+	/**
+	 * @return the keyframe that a seek to the target frame should start
+	 *         from, or null if walking from the current one is cheaper
+	 */
+	private Keyframe nearest(int target) {
+		long best = words(cursor, target);
+		Keyframe found = null;
+		int i = keyframes.size();
+		while (i > 0 && keyframes.get(i - 1).generation > generation(target))
+			i--;
+		// those either side of the target, the grid to compare besides
+		for (int j = Math.max(0, i - 1); j <= i && j < keyframes.size(); j++) {
+			Keyframe k = keyframes.get(j);
+			long cost = (long) perRow * height
+					+ words(find(k.generation), target);
+			if (cost < best) {
+				best = cost;
+				found = k;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the words logged in the frames between two of them
+	 */
+	private long words(int from, int to) {
+		int low = Math.min(from, to), high = Math.max(from, to);
+		return low == high ? 0 : end(high) - start(low + 1);
+	}
+
+	/**
+	 * Flips the cells of the engine in net, and empties it.
+	 */
+	private void flip(Engine engine) {
+		PackedEngine packed = engine instanceof PackedEngine ? (PackedEngine) engine
+				: null;
+		for (int n = 0; n < net.count; n++) {
+			int key = net.keys[n];
+			long word = net.words[key];
+			int row = key / perRow, k = key % perRow;
+			if (word == 0) {
+				continue;
+			} else if (packed != null) {
+				packed.flip(row, k, word);
+			} else {
+				for (; word != 0; word &= word - 1) {
+					int col = (k << 6) + Long.numberOfTrailingZeros(word);
+					engine.set(row, col, !engine.get(row, col));
+				}
+			}
+		}
+		net.clear();
+	}
+}
@@ -0,0 +1,102 @@
+package logic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A bit-packed engine that splits the grid into bands of rows and computes
+ * them on a ForkJoinPool. Every band reads only the current generation and
+ * writes only its own rows of the next one, so the result is identical to
+ * the serial engine.
+ * <p>
+ * Engines asking for the same number of threads share a pool, which lives
+ * as long as the program, so an engine that is replaced or thrown away
+ * leaves no threads behind.
+ * 
+ */
+public class ParallelEngine extends PackedEngine {
+
+	/** bands are not split below this many rows */
+	public static final int MIN_BAND = 16;
+
+	/* the shared pools, by parallelism */
+	private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Uses one thread per available processor.
+	 */
+	public ParallelEngine(boolean[][] grid) {
+		this(grid, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelEngine(boolean[][] grid, int parallelism) {
+		super(grid);
+		pool = pool(parallelism);
+	}
+
+	/**
+	 * @return the pool shared by engines using the given number of threads
+	 */
+	private static synchronized ForkJoinPool pool(int parallelism) {
+		ForkJoinPool pool = pools.get(parallelism);
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+			pools.put(parallelism, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Sets the number of threads used for stepping.
+	 */
+	public void setParallelism(int parallelism) {
+		pool = pool(parallelism);
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	@Override
+	public void step() {
+		if (toroidal)
+			wrapRows();
+		// aim for a few bands per thread so uneven rows balance out
+		int band = Math.max(MIN_BAND, height / (pool.getParallelism() * 4));
+		pool.invoke(new Band(1, height + 1, band));
+
+		long[] temp = cells; // swap the buffers
+		cells = next;
+		next = temp;
+	}
+
+	/**
+	 * Computes the rows [from, to) of the next generation, splitting itself
+	 * in half until it is no bigger than the band size.
+	 */
+	private class Band extends RecursiveAction {
+		private final int from, to, size;
+
+		Band(int from, int to, int size) {
+			this.from = from;
+			this.to = to;
+			this.size = size;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= size) {
+				for (int row = from; row < to; row++)
+					stepRow(row, 0, words);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Band(from, middle, size), new Band(middle, to,
+						size));
+			}
+		}
+	}
+}
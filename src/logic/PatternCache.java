@@ -0,0 +1,184 @@
+package logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the patterns read most recently, so opening or dropping the same
+ * file again doesn't read it again. A file is read again once its length or
+ * time changes. The least recently used patterns are dropped when the
+ * cells held would go over the capacity.
+ * <p>
+ * The grids handed out are shared with the cache and must not be written
+ * to. That costs nothing when they are loaded into a colony: every engine
+ * copies the grid it loads, so the copy an edit changes is the engine's,
+ * and the colony only reads the grid it keeps for reset().
+ *
+ */
+public class PatternCache {
+
+	/**
+	 * One file as it was read.
+	 */
+	private static final class Entry {
+		final long modified, length; // of the file when read
+		final boolean[][] grid;
+		final Rule rule;
+		final long bytes; // roughly, that the grid takes up
+
+		Entry(long modified, long length, boolean[][] grid, Rule rule) {
+			this.modified = modified;
+			this.length = length;
+			this.grid = grid;
+			this.rule = rule;
+			bytes = size(grid);
+		}
+
+		boolean isCurrent(File f) {
+			return modified == f.lastModified() && length == f.length();
+		}
+	}
+
+	private final long capacity;
+	private long used; // bytes held by the entries
+	private int hits, misses;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true); // least recently used first
+
+	/**
+	 * @param capacity
+	 *            the most memory the grids held may take up, in bytes
+	 */
+	public PatternCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * A cache allowed an eighth of the memory the JVM may use.
+	 */
+	public PatternCache() {
+		this(Runtime.getRuntime().maxMemory() / 8);
+	}
+
+	/**
+	 * Reads a file like PatternFile.load(), unless it has been read since it
+	 * last changed.
+	 *
+	 * @return the grid, shared with the cache: don't write to it
+	 */
+	public boolean[][] load(File f) throws IOException {
+		return get(f, null).grid;
+	}
+
+	/**
+	 * Reads a file like PatternFile.load(File, ProgressListener), unless it
+	 * has been read since it last changed.
+	 *
+	 * @return the grid, shared with the cache: don't write to it
+	 */
+	public boolean[][] load(File f, ProgressListener progress)
+			throws IOException {
+		return get(f, progress).grid;
+	}
+
+	/**
+	 * Reads a file's rule like PatternFile.loadRule(), unless it has been
+	 * read since it last changed.
+	 */
+	public Rule loadRule(File f) throws IOException {
+		return get(f, null).rule;
+	}
+
+	/**
+	 * Returns the file's entry, reading it if there is none or the file has
+	 * changed. The file is read without holding the lock, so a long read
+	 * doesn't hold up loads of other files.
+	 */
+	private Entry get(File f, ProgressListener progress) throws IOException {
+		String key = f.getCanonicalPath();
+		synchronized (this) {
+			Entry e = entries.get(key);
+			if (e != null && e.isCurrent(f)) {
+				hits++;
+				return e;
+			}
+			misses++;
+		}
+		long modified = f.lastModified(), length = f.length();
+		PatternFile.Pattern pattern = PatternFile.read(f, progress);
+		if (pattern == null)
+			throw new IOException("Not a pattern file: " + f.getName());
+		Entry e = new Entry(modified, length, pattern.getGrid(),
+				pattern.getRule());
+		synchronized (this) {
+			remove(key);
+			if (e.bytes <= capacity) {
+				entries.put(key, e);
+				used += e.bytes;
+				trim();
+			}
+		}
+		return e;
+	}
+
+	/**
+	 * Drops the least recently used entries until the rest fit.
+	 */
+	private void trim() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (used > capacity && it.hasNext()) {
+			used -= it.next().bytes;
+			it.remove();
+		}
+	}
+
+	private void remove(String key) {
+		Entry e = entries.remove(key);
+		if (e != null)
+			used -= e.bytes;
+	}
+
+	/**
+	 * Forgets a file, so it is read again next time even if its time and
+	 * length look the same, as after it was saved over.
+	 */
+	public synchronized void forget(File f) throws IOException {
+		remove(f.getCanonicalPath());
+	}
+
+	/**
+	 * Forgets every pattern.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		used = 0;
+	}
+
+	/**
+	 * @return the memory the grids held take up, roughly, in bytes
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return roughly the bytes a grid takes up: a header and a reference
+	 *         for each row, and a byte for each cell
+	 */
+	static long size(boolean[][] grid) {
+		long bytes = 16 + 4L * grid.length;
+		for (boolean[] row : grid)
+			bytes += 16 + row.length;
+		return bytes;
+	}
+}
@@ -0,0 +1,251 @@
+package logic;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Reads colony files. Has no GUI dependencies so it can be used without a
+ * display; LifeFileReader adds the file dialogs on top of it. Files are
+ * written by PatternWriter, binary snapshots by SnapshotFile.
+ */
+public class PatternFile {
+
+	/** the space added around .lif patterns when they are loaded */
+	public static final int MARGIN = 50;
+
+	private PatternFile() {
+	}
+
+	/**
+	 * A pattern as read from a file: its cells and the rule it was written
+	 * for, from the same pass over the file.
+	 */
+	public static final class Pattern {
+		private final boolean[][] grid;
+		private final String rule; // as the file gives it
+		private final boolean hasRule; // whether files of its type can say
+
+		private Pattern(boolean[][] grid, String rule, boolean hasRule) {
+			this.grid = grid;
+			this.rule = rule;
+			this.hasRule = hasRule;
+		}
+
+		public boolean[][] getGrid() {
+			return grid;
+		}
+
+		/**
+		 * @return the rule = field of an RLE header (B3/S23 if it has none),
+		 *         or a snapshot's rule, or null for files that don't say,
+		 *         like .col
+		 * @throws IOException
+		 *             if the rule is not one this program can run
+		 */
+		public Rule getRule() throws IOException {
+			return hasRule ? toRule(rule) : null;
+		}
+	}
+
+	/**
+	 * called to load any type of file.
+	 */
+	public static boolean[][] load(File f) throws IOException {
+		return load(f, null);
+	}
+
+	/**
+	 * Loads any type of file like load(File), telling the listener how much
+	 * has been read, if there is one.
+	 */
+	public static boolean[][] load(File f, ProgressListener progress)
+			throws IOException {
+		Pattern pattern = read(f, progress);
+		return pattern == null ? null : pattern.getGrid();
+	}
+
+	/**
+	 * Reads the cells of any type of file and the rule it was written for,
+	 * telling the listener how much has been read, if there is one. RLE files
+	 * are then read as a stream so the progress follows the bytes read; the
+	 * other types are reported when done. The reading stops with an
+	 * InterruptedIOException if the thread is interrupted.
+	 *
+	 * @return the pattern, or null if the file is of no type read here
+	 */
+	public static Pattern read(File f, ProgressListener progress)
+			throws IOException {
+		String name = f.getName();
+		if (name.endsWith(".lif") || name.endsWith(".rle")) {
+			RleReader reader = new RleReader();
+			boolean[][] grid;
+			if (progress == null) {
+				grid = reader.read(f, MARGIN); // default expand grid files
+			} else {
+				InputStream in = new ProgressInputStream(new FileInputStream(
+						f), f.length(), progress);
+				try {
+					grid = reader.read(in, MARGIN);
+				} finally {
+					in.close();
+				}
+			}
+			return new Pattern(grid, reader.getRule(), true);
+		}
+		Pattern pattern;
+		if (name.endsWith(".col") || name.endsWith(".txt")) {
+			pattern = new Pattern(loadCol(f), null, false);
+		} else if (name.endsWith(SnapshotFile.EXTENSION)) {
+			SnapshotFile snapshot = SnapshotFile.open(f);
+			pattern = new Pattern(snapshot.toGrid(), snapshot.getRule(), true);
+		} else {
+			return null;
+		}
+		if (progress != null)
+			progress.progress(f.length(), f.length());
+		return pattern;
+	}
+
+	/**
+	 * Reads the rule a file was written for, as Pattern.getRule() gives it.
+	 * Only a snapshot's header is read; other files are read whole, so use
+	 * read() for the cells as well.
+	 *
+	 * @return the rule, or null for files that don't say, like .col
+	 * @throws IOException
+	 *             if the rule is not one this program can run
+	 */
+	public static Rule loadRule(File f) throws IOException {
+		if (f.getName().endsWith(SnapshotFile.EXTENSION))
+			return toRule(SnapshotFile.open(f).getRule());
+		Pattern pattern = read(f, null);
+		return pattern == null ? null : pattern.getRule();
+	}
+
+	/**
+	 * @param rule
+	 *            a rule as a file gives it, or null if it gives none
+	 * @return the rule, B3/S23 if there was none
+	 * @throws IOException
+	 *             if the rule is not one this program can run
+	 */
+	public static Rule toRule(String rule) throws IOException {
+		if (rule == null)
+			return Rule.CONWAY;
+		try {
+			return Rule.parse(rule);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unsupported rule: " + rule);
+		}
+	}
+
+	/**
+	 * Generates a grid based on a text file. The file should look just like a
+	 * grid, with '.' representing dead cells and '*' representing live cells.
+	 * 
+	 * @param file
+	 *            a .col file.
+	 * @return a boolean array representing the grid
+	 * @throws IOException
+	 */
+	public static boolean[][] loadCol(File file) throws IOException {
+		// Buffer the content for faster reading
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		// one row for each '\n', and one after the last, read in one pass
+		ArrayList<String> lines = new ArrayList<String>();
+		try {
+			StringBuilder line = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				int from = 0;
+				for (int i = 0; i < read; i++)
+					if (buffer[i] == '\n') {
+						line.append(buffer, from, i - from);
+						lines.add(trimReturn(line));
+						line.setLength(0);
+						from = i + 1;
+					}
+				line.append(buffer, from, read - from);
+			}
+			lines.add(trimReturn(line));
+		} finally {
+			reader.close();
+		}
+
+		// number of columns in the length of the first line
+		int numColumns = lines.get(0).length();
+		boolean[][] grid = new boolean[lines.size()][numColumns]; // set up grid
+
+		for (int row = 0; row < grid.length; row++) { // loop through each line
+			// read characters in this line
+			String line = lines.get(row);
+			for (int col = 0; col < numColumns && col < line.length(); col++)
+				grid[row][col] = line.charAt(col) == '*';
+		}
+		return grid;
+	}
+
+	/**
+	 * @return the line without the '\r' of a "\r\n" line ending
+	 */
+	private static String trimReturn(StringBuilder line) {
+		int length = line.length();
+		if (length > 0 && line.charAt(length - 1) == '\r')
+			length--;
+		return line.substring(0, length);
+	}
+
+	/**
+	 * Counts the number of lines in a text file (found on StackOverflow)
+	 * 
+	 * @author martinus
+	 */
+	public static int countLines(InputStream is) throws IOException {
+		try {
+			byte[] c = new byte[1024];
+			int count = 0;
+			int readChars = 0;
+			while ((readChars = is.read(c)) != -1) {
+				for (int i = 0; i < readChars; ++i) {
+					if (c[i] == '\n')
+						++count;
+				}
+			}
+			return count;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads standard .lif (RLE) files
+	 * 
+	 * @param f
+	 * @return the pattern, with no space around it
+	 * @throws IOException
+	 */
+	public static boolean[][] loadLif(File f) throws IOException {
+		return new RleReader().read(f, 0);
+	}
+
+	/**
+	 * Expands a grid on all 4 sides by the given size.
+	 */
+	public static boolean[][] expandGrid(boolean[][] grid, int size) {
+		boolean[][] new_grid = new boolean[grid.length + size * 2][grid[0].length
+				+ size * 2];
+
+		for (int row = 0; row < grid.length; row++)
+			for (int col = 0; col < grid[0].length; col++) {
+				new_grid[size + row][size + col] = grid[row][col];
+			}
+		return new_grid;
+	}
+}
@@ -0,0 +1,505 @@
+package logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An index of the patterns under a directory, saved in the directory so a
+ * pattern browser can show them without reading every file. Refreshing only
+ * reads the files that were added or changed since the index was saved,
+ * and reads them in parallel.
+ * <p>
+ * Each entry holds what the file says about itself (size, rule, comments),
+ * what is in it (population, bounding box), a hash of its cells that is the
+ * same wherever they are and however they are turned or flipped, for
+ * finding duplicates, and a thumbnail.
+ *
+ */
+public class PatternIndex {
+
+	/** the name of the index file, in the indexed directory */
+	public static final String FILE_NAME = ".pattern-index";
+
+	public static final int MAGIC = 0x4c494458; // "LIDX"
+	public static final int VERSION = 1;
+
+	/** the largest width or height of a thumbnail, in pixels */
+	public static final int THUMBNAIL_SIZE = 48;
+
+	/* the longest comment line kept */
+	private static final int MAX_COMMENT = 1000;
+
+	/**
+	 * What the index knows about one file. Entries are immutable.
+	 */
+	public static final class Entry {
+		private final String path; // from the indexed directory, with '/'
+		private final long modified, length; // of the file when read
+		private String error; // why it couldn't be read, or null
+		private int width, height;
+		private String rule; // null if the file doesn't say
+		private long population;
+		private int[] bounds; // {top, left, height, width}, null if empty
+		private List<String> comments = Collections.emptyList();
+		private long hash;
+		private int thumbnailWidth, thumbnailHeight;
+		private byte[] thumbnail = new byte[0];
+
+		Entry(String path, long modified, long length) {
+			this.path = path;
+			this.modified = modified;
+			this.length = length;
+		}
+
+		/**
+		 * @return the path of the file from the indexed directory, with /
+		 *         between the names
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the file's name, without the directories
+		 */
+		public String getName() {
+			return path.substring(path.lastIndexOf('/') + 1);
+		}
+
+		public long getModified() {
+			return modified;
+		}
+
+		/**
+		 * @return why the file couldn't be read, or null if it could
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * @return the width the file gives, which may be bigger than the
+		 *         bounding box
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return the rule the file gives, or null if it doesn't say
+		 */
+		public String getRule() {
+			return rule;
+		}
+
+		public long getPopulation() {
+			return population;
+		}
+
+		/**
+		 * @return the smallest rectangle holding every live cell, as {top,
+		 *         left, height, width}, or null if there are none
+		 */
+		public int[] getBounds() {
+			return bounds == null ? null : bounds.clone();
+		}
+
+		public List<String> getComments() {
+			return comments;
+		}
+
+		/**
+		 * @return a hash of the live cells that ignores where they are and
+		 *         which way round; equal for duplicate patterns
+		 */
+		public long getHash() {
+			return hash;
+		}
+
+		public int getThumbnailWidth() {
+			return thumbnailWidth;
+		}
+
+		public int getThumbnailHeight() {
+			return thumbnailHeight;
+		}
+
+		/**
+		 * @return the thumbnail, a row at a time: 0 for empty, otherwise 64
+		 *         to 255 for how full of live cells the pixel's block is
+		 */
+		public byte[] getThumbnail() {
+			return thumbnail.clone();
+		}
+
+		public String toString() {
+			return path;
+		}
+	}
+
+	private final File root;
+	private Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+	/**
+	 * An empty index of the directory. Call load() and refresh() to fill it.
+	 */
+	public PatternIndex(File root) {
+		this.root = root;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the indexed file
+	 */
+	public File getFile(Entry e) {
+		return new File(root, e.path.replace('/', File.separatorChar));
+	}
+
+	/**
+	 * @return the entries, in order of their paths
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	/**
+	 * Reads the saved index, if there is one.
+	 *
+	 * @return false if there was none, or it couldn't be read
+	 */
+	public boolean load() {
+		File f = new File(root, FILE_NAME);
+		if (!f.isFile())
+			return false;
+		TreeMap<String, Entry> loaded = new TreeMap<String, Entry>();
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					return false; // rebuilt by the next refresh
+				for (int i = in.readInt(); i > 0; i--) {
+					Entry e = readEntry(in);
+					loaded.put(e.path, e);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		synchronized (this) {
+			entries = loaded;
+		}
+		return true;
+	}
+
+	/**
+	 * Brings the index up to date with the directory, reading the files
+	 * that are new or whose time or length changed, and saves it if
+	 * anything did.
+	 *
+	 * @return the number of files read
+	 */
+	public int refresh() throws IOException, InterruptedException {
+		ArrayList<File> files = new ArrayList<File>();
+		list(root, files);
+		Map<String, Entry> old;
+		synchronized (this) {
+			old = entries;
+		}
+
+		TreeMap<String, Entry> fresh = new TreeMap<String, Entry>();
+		ArrayList<Future<Entry>> reading = new ArrayList<Future<Entry>>();
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Pattern indexer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			for (final File f : files) {
+				final String path = root.toPath().relativize(f.toPath())
+						.toString().replace(File.separatorChar, '/');
+				Entry e = old.get(path);
+				if (e != null && e.modified == f.lastModified()
+						&& e.length == f.length()) {
+					fresh.put(path, e);
+					continue;
+				}
+				reading.add(pool.submit(new Callable<Entry>() {
+					@Override
+					public Entry call() {
+						return read(f, path);
+					}
+				}));
+			}
+			for (Future<Entry> future : reading) {
+				Entry e = future.get();
+				fresh.put(e.path, e);
+			}
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		synchronized (this) {
+			entries = fresh;
+		}
+		if (!reading.isEmpty() || fresh.size() != old.size())
+			save();
+		return reading.size();
+	}
+
+	/**
+	 * Finds the pattern files under a directory.
+	 */
+	private static void list(File dir, ArrayList<File> files) {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		for (File f : children) {
+			String name = f.getName();
+			if (name.startsWith("."))
+				continue;
+			if (f.isDirectory())
+				list(f, files);
+			else if (name.endsWith(".lif") || name.endsWith(".rle")
+					|| name.endsWith(".col") || name.endsWith(".txt")
+					|| name.endsWith(SnapshotFile.EXTENSION))
+				files.add(f);
+		}
+	}
+
+	/**
+	 * Reads a file into an entry. A file that can't be read gets an entry
+	 * saying why, so it isn't read again until it changes.
+	 */
+	static Entry read(File f, String path) {
+		Entry e = new Entry(path, f.lastModified(), f.length());
+		try {
+			boolean[][] grid;
+			String name = f.getName();
+			if (name.endsWith(".lif") || name.endsWith(".rle")) {
+				RleReader reader = new RleReader();
+				grid = reader.read(f, 0);
+				e.rule = reader.getRule();
+				ArrayList<String> comments = new ArrayList<String>();
+				for (String c : reader.getComments())
+					comments.add(c.length() > MAX_COMMENT ? c.substring(0,
+							MAX_COMMENT) : c);
+				e.comments = Collections.unmodifiableList(comments);
+			} else if (name.endsWith(SnapshotFile.EXTENSION)) {
+				SnapshotFile snapshot = SnapshotFile.open(f);
+				grid = snapshot.toGrid();
+				e.rule = snapshot.getRule();
+			} else {
+				grid = PatternFile.loadCol(f);
+			}
+			e.height = grid.length;
+			e.width = grid.length == 0 ? 0 : grid[0].length;
+			for (boolean[] row : grid)
+				for (boolean cell : row)
+					if (cell)
+						e.population++;
+			e.bounds = PatternWriter.bounds(grid);
+			e.hash = canonicalHash(grid, e.bounds);
+			thumbnail(e, grid);
+		} catch (Exception ex) { // anything a broken file can throw
+			e.error = ex.toString();
+		}
+		return e;
+	}
+
+	/**
+	 * @return a hash of the live cells inside the bounds, the smallest over
+	 *         the 8 ways of turning and flipping them, or 0 if there are none
+	 */
+	public static long canonicalHash(boolean[][] grid, int[] bounds) {
+		if (bounds == null)
+			return 0;
+		int top = bounds[0], left = bounds[1], height = bounds[2], width = bounds[3];
+		long best = Long.MAX_VALUE;
+		for (int t = 0; t < 8; t++) {
+			boolean transpose = (t & 4) != 0;
+			int rows = transpose ? width : height;
+			int cols = transpose ? height : width;
+			long hash = mix(mix(0x6a09e667f3bcc909L, rows), cols);
+			long word = 0;
+			int bits = 0;
+			for (int r = 0; r < rows; r++)
+				for (int c = 0; c < cols; c++) {
+					int y = transpose ? c : r, x = transpose ? r : c;
+					if ((t & 1) != 0)
+						y = height - 1 - y;
+					if ((t & 2) != 0)
+						x = width - 1 - x;
+					word = word << 1 | (grid[top + y][left + x] ? 1 : 0);
+					if (++bits == 64) {
+						hash = mix(hash, word);
+						word = 0;
+						bits = 0;
+					}
+				}
+			best = Math.min(best, mix(hash, word));
+		}
+		return best;
+	}
+
+	private static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	/**
+	 * Shrinks the live part of the grid into the entry's thumbnail.
+	 */
+	private static void thumbnail(Entry e, boolean[][] grid) {
+		if (e.bounds == null)
+			return;
+		int top = e.bounds[0], left = e.bounds[1], height = e.bounds[2], width = e.bounds[3];
+		int scale = Math.max(1, Math.max((width + THUMBNAIL_SIZE - 1)
+				/ THUMBNAIL_SIZE, (height + THUMBNAIL_SIZE - 1)
+				/ THUMBNAIL_SIZE));
+		int w = (width + scale - 1) / scale, h = (height + scale - 1) / scale;
+		int[] counts = new int[w * h];
+		for (int r = 0; r < height; r++) {
+			boolean[] row = grid[top + r];
+			for (int c = 0; c < width; c++)
+				if (row[left + c])
+					counts[(r / scale) * w + c / scale]++;
+		}
+		byte[] pixels = new byte[w * h];
+		int area = scale * scale;
+		for (int i = 0; i < pixels.length; i++)
+			if (counts[i] > 0) // shaded like ColonyRenderer's zoomed out view
+				pixels[i] = (byte) (64 + 191 * counts[i] / area);
+		e.thumbnailWidth = w;
+		e.thumbnailHeight = h;
+		e.thumbnail = pixels;
+	}
+
+	/**
+	 * Writes the index into the directory, replacing the old one in one go.
+	 */
+	public void save() throws IOException {
+		List<Entry> list = getEntries();
+		File f = new File(root, FILE_NAME);
+		File temp = AtomicSave.createTemp(f);
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(list.size());
+				for (Entry e : list)
+					writeEntry(e, out);
+			} finally {
+				out.close();
+			}
+			AtomicSave.replace(temp, f);
+		} finally {
+			temp.delete(); // only still there if something went wrong
+		}
+	}
+
+	private static void writeEntry(Entry e, DataOutputStream out)
+			throws IOException {
+		out.writeUTF(e.path);
+		out.writeLong(e.modified);
+		out.writeLong(e.length);
+		out.writeUTF(e.error == null ? "" : e.error);
+		out.writeInt(e.width);
+		out.writeInt(e.height);
+		out.writeUTF(e.rule == null ? "" : e.rule);
+		out.writeLong(e.population);
+		out.writeBoolean(e.bounds != null);
+		if (e.bounds != null)
+			for (int b : e.bounds)
+				out.writeInt(b);
+		out.writeInt(e.comments.size());
+		for (String c : e.comments)
+			out.writeUTF(c);
+		out.writeLong(e.hash);
+		out.writeShort(e.thumbnailWidth);
+		out.writeShort(e.thumbnailHeight);
+		out.write(e.thumbnail);
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		Entry e = new Entry(in.readUTF(), in.readLong(), in.readLong());
+		String error = in.readUTF();
+		e.error = error.isEmpty() ? null : error;
+		e.width = in.readInt();
+		e.height = in.readInt();
+		String rule = in.readUTF();
+		e.rule = rule.isEmpty() ? null : rule;
+		e.population = in.readLong();
+		if (in.readBoolean()) {
+			e.bounds = new int[4];
+			for (int i = 0; i < 4; i++)
+				e.bounds[i] = in.readInt();
+		}
+		int count = in.readInt();
+		ArrayList<String> comments = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+			comments.add(in.readUTF());
+		e.comments = Collections.unmodifiableList(comments);
+		e.hash = in.readLong();
+		e.thumbnailWidth = in.readShort();
+		e.thumbnailHeight = in.readShort();
+		e.thumbnail = new byte[e.thumbnailWidth * e.thumbnailHeight];
+		in.readFully(e.thumbnail);
+		return e;
+	}
+
+	/**
+	 * @return the entries with the same cells as an earlier one, in path
+	 *         order, mapped to that earlier one
+	 */
+	public Map<Entry, Entry> findDuplicates() {
+		HashMap<Long, Entry> first = new HashMap<Long, Entry>();
+		HashMap<Entry, Entry> duplicates = new HashMap<Entry, Entry>();
+		for (Entry e : getEntries()) {
+			if (e.error != null || e.bounds == null)
+				continue;
+			Entry original = first.get(e.hash);
+			if (original == null)
+				first.put(e.hash, e);
+			else if (original.population == e.population)
+				duplicates.put(e, original);
+		}
+		return duplicates;
+	}
+}
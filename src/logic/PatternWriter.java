@@ -0,0 +1,227 @@
+package logic;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes grids as RLE (.lif/.rle) or .col text. Only the bounding box of the
+ * live cells is written, output is streamed to any Appendable, and files are
+ * written to a temporary file first and renamed into place so a failed save
+ * never leaves half a file behind.
+ *
+ */
+public class PatternWriter {
+
+	/** RLE lines are kept no longer than this */
+	public static final int LINE_LENGTH = 70;
+
+	/** the rule written when none is given */
+	public static final String DEFAULT_RULE = "B3/S23";
+
+	private PatternWriter() {
+	}
+
+	/**
+	 * @return the smallest rectangle holding every live cell, as {top, left,
+	 *         height, width}, or null if there are none
+	 */
+	public static int[] bounds(boolean[][] grid) {
+		int top = -1, bottom = -1, left = Integer.MAX_VALUE, right = -1;
+		for (int row = 0; row < grid.length; row++) {
+			boolean[] cells = grid[row];
+			int first = -1, last = -1;
+			for (int col = 0; col < cells.length; col++)
+				if (cells[col]) {
+					if (first < 0)
+						first = col;
+					last = col;
+				}
+			if (first < 0)
+				continue;
+			if (top < 0)
+				top = row;
+			bottom = row;
+			left = Math.min(left, first);
+			right = Math.max(right, last);
+		}
+		if (top < 0)
+			return null;
+		return new int[] { top, left, bottom - top + 1, right - left + 1 };
+	}
+
+	/**
+	 * Saves the grid, choosing RLE for .lif and .rle files and .col for
+	 * anything else. If the thread is interrupted the save stops with an
+	 * InterruptedIOException, leaving any old file as it was.
+	 *
+	 * @param rule
+	 *            the rule for the RLE header, or null for B3/S23
+	 */
+	public static void save(boolean[][] grid, String rule, File file)
+			throws IOException {
+		String name = file.getName();
+		boolean rle = name.endsWith(".lif") || name.endsWith(".rle");
+
+		File temp = AtomicSave.createTemp(file);
+		try {
+			OutputStream out = new Interruptible(new FileOutputStream(temp));
+			try {
+				if (rle)
+					writeRle(grid, rule, out);
+				else
+					writeCol(grid, out);
+			} finally {
+				out.close();
+			}
+			AtomicSave.replace(temp, file);
+		} finally {
+			temp.delete(); // only still there if something went wrong
+		}
+	}
+
+	/**
+	 * Writes the grid as RLE to the stream. The stream is not closed.
+	 */
+	public static void writeRle(boolean[][] grid, String rule, OutputStream out)
+			throws IOException {
+		Writer writer = writer(out);
+		writeRle(grid, rule, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Writes the grid as .col text to the stream. The stream is not closed.
+	 */
+	public static void writeCol(boolean[][] grid, OutputStream out)
+			throws IOException {
+		Writer writer = writer(out);
+		writeCol(grid, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Stops writing once the thread is interrupted.
+	 */
+	private static class Interruptible extends FilterOutputStream {
+		Interruptible(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			check();
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			check();
+			out.write(b, off, len);
+		}
+
+		private void check() throws InterruptedIOException {
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedIOException("Saving cancelled");
+		}
+	}
+
+	private static Writer writer(OutputStream out) {
+		return new BufferedWriter(new OutputStreamWriter(out,
+				StandardCharsets.US_ASCII), 64 * 1024);
+	}
+
+	/**
+	 * Writes the live part of the grid as RLE.
+	 *
+	 * @param rule
+	 *            the rule for the header, or null for B3/S23
+	 */
+	public static void writeRle(boolean[][] grid, String rule, Appendable out)
+			throws IOException {
+		int[] box = bounds(grid);
+		int top = 0, left = 0, height = 0, width = 0;
+		if (box != null) {
+			top = box[0];
+			left = box[1];
+			height = box[2];
+			width = box[3];
+		}
+		out.append("x = ").append(Integer.toString(width)).append(", y = ")
+				.append(Integer.toString(height)).append(", rule = ")
+				.append(rule == null ? DEFAULT_RULE : rule).append('\n');
+
+		Rle rle = new Rle(out);
+		int newlines = 0; // row ends not written yet
+		for (int row = top; row < top + height; row++) {
+			boolean[] cells = grid[row];
+			int col = left, end = left + width;
+			while (end > col && !cells[end - 1]) // trailing dead cells
+				end--;
+			if (col < end && newlines > 0) {
+				rle.run(newlines, '$');
+				newlines = 0;
+			}
+			while (col < end) {
+				boolean alive = cells[col];
+				int start = col;
+				while (col < end && cells[col] == alive)
+					col++;
+				rle.run(col - start, alive ? 'o' : 'b');
+			}
+			newlines++;
+		}
+		rle.run(1, '!');
+		out.append('\n');
+	}
+
+	/**
+	 * Appends runs, wrapping lines before they get too long.
+	 */
+	private static class Rle {
+		private final Appendable out;
+		private int length; // of the current line
+
+		Rle(Appendable out) {
+			this.out = out;
+		}
+
+		void run(int count, char tag) throws IOException {
+			String number = count > 1 ? Integer.toString(count) : "";
+			if (length + number.length() + 1 > LINE_LENGTH) {
+				out.append('\n');
+				length = 0;
+			}
+			out.append(number).append(tag);
+			length += number.length() + 1;
+		}
+	}
+
+	/**
+	 * Writes the live part of the grid as .col text: '*' for live cells, '.'
+	 * for dead ones, with no line break after the last row.
+	 */
+	public static void writeCol(boolean[][] grid, Appendable out)
+			throws IOException {
+		int[] box = bounds(grid);
+		if (box == null) {
+			out.append('.');
+			return;
+		}
+		for (int row = box[0]; row < box[0] + box[2]; row++) {
+			boolean[] cells = grid[row];
+			for (int col = box[1]; col < box[1] + box[3]; col++)
+				out.append(cells[col] ? '*' : '.');
+			// don't line break the last line
+			if (row < box[0] + box[2] - 1)
+				out.append('\n');
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package logic;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Counts the bytes read from a stream for a ProgressListener, and stops
+ * reading once the reading thread is interrupted, so a long read can be
+ * cancelled.
+ *
+ */
+public class ProgressInputStream extends FilterInputStream {
+
+	private final long total;
+	private final ProgressListener listener;
+	private long done;
+
+	/**
+	 * @param total
+	 *            the length of the stream, passed on to the listener
+	 */
+	public ProgressInputStream(InputStream in, long total,
+			ProgressListener listener) {
+		super(in);
+		this.total = total;
+		this.listener = listener;
+	}
+
+	@Override
+	public int read() throws IOException {
+		check();
+		int b = super.read();
+		if (b >= 0)
+			count(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		check();
+		int n = super.read(b, off, len);
+		if (n > 0)
+			count(n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		check();
+		long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false; // reset() would throw the count off
+	}
+
+	private void check() throws InterruptedIOException {
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Reading cancelled");
+	}
+
+	private void count(long n) {
+		done += n;
+		listener.progress(done, total);
+	}
+}
@@ -0,0 +1,15 @@
+package logic;
+
+/**
+ * Told how far a file has been read.
+ */
+public interface ProgressListener {
+
+	/**
+	 * @param done
+	 *            the bytes read so far
+	 * @param total
+	 *            the bytes there are to read
+	 */
+	public void progress(long done, long total);
+}
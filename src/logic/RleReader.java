@@ -0,0 +1,231 @@
+package logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads RLE (.lif/.rle) files in a single pass over the bytes, writing cells
+ * straight into the grid as it goes. Files are memory-mapped; streams are
+ * read in chunks. Either way the state machine keeps its place between
+ * chunks, so runs and rows may be split across lines anywhere.
+ * <p>
+ * Handles the whole format: # comment lines, the x = , y = , rule = header,
+ * run counts on b, o and $, other letters (multi-state patterns) as live
+ * cells, whitespace anywhere and the terminating !. Cells past the size
+ * given in the header are ignored.
+ *
+ */
+public class RleReader {
+
+	/* where the state machine is */
+	private static final int LINE_START = 0, COMMENT = 1, HEADER = 2,
+			BODY = 3, DONE = 4;
+
+	private int state = LINE_START;
+	private StringBuilder line = new StringBuilder(); // header or comment
+	private ArrayList<String> comments = new ArrayList<String>();
+
+	private int width = -1, height = -1;
+	private String rule;
+	private boolean[][] grid;
+	private int margin; // dead cells added around the pattern
+	private int row, col, run; // run is 0 when no count has been read
+
+	/**
+	 * Reads a file by mapping it into memory.
+	 *
+	 * @param margin
+	 *            the number of dead cells to add on every side
+	 */
+	public boolean[][] read(File f, int margin) throws IOException {
+		begin(margin);
+		FileChannel channel = FileChannel.open(f.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			for (long pos = 0; pos < size && state != DONE; pos += Integer.MAX_VALUE) {
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, pos,
+						Math.min(Integer.MAX_VALUE, size - pos));
+				feed(buffer);
+			}
+		} finally {
+			channel.close();
+		}
+		return finish();
+	}
+
+	/**
+	 * Reads a stream a chunk at a time. The stream is not closed.
+	 *
+	 * @param margin
+	 *            the number of dead cells to add on every side
+	 */
+	public boolean[][] read(InputStream in, int margin) throws IOException {
+		begin(margin);
+		byte[] chunk = new byte[64 * 1024];
+		ByteBuffer buffer = ByteBuffer.wrap(chunk);
+		int n;
+		while (state != DONE && (n = in.read(chunk)) != -1) {
+			buffer.clear();
+			buffer.limit(n);
+			feed(buffer);
+		}
+		return finish();
+	}
+
+	private void begin(int margin) {
+		this.margin = margin;
+		state = LINE_START;
+		line.setLength(0);
+		comments.clear();
+		width = height = -1;
+		rule = null;
+		grid = null;
+		row = col = run = 0;
+	}
+
+	private boolean[][] finish() throws IOException {
+		if (state == HEADER) // a header with no body after it
+			header();
+		if (grid == null)
+			throw new IOException("No x = , y = header found");
+		return grid;
+	}
+
+	/**
+	 * Runs the state machine over the remaining bytes of the buffer.
+	 */
+	private void feed(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining() && state != DONE) {
+			char c = (char) (buffer.get() & 0xff);
+			switch (state) {
+			case LINE_START:
+				if (c == '#') {
+					state = COMMENT;
+					line.setLength(0);
+				} else if (c == 'x' && grid == null) {
+					state = HEADER;
+					line.setLength(0);
+					line.append(c);
+				} else if (c > ' ') {
+					if (grid == null)
+						throw new IOException("Pattern found before header");
+					state = BODY;
+					body(c);
+				}
+				break;
+			case COMMENT:
+				if (c == '\n') {
+					comments.add(line.toString().trim());
+					state = grid == null ? LINE_START : BODY;
+				} else if (c != '\r') {
+					line.append(c);
+				}
+				break;
+			case HEADER:
+				if (c == '\n') {
+					header();
+					state = LINE_START;
+				} else {
+					line.append(c);
+				}
+				break;
+			case BODY:
+				if (c == '#' && col == 0 && run == 0) { // a late comment line
+					state = COMMENT;
+					line.setLength(0);
+				} else {
+					body(c);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Handles one character of the run-length encoded cells.
+	 */
+	private void body(char c) {
+		if (c >= '0' && c <= '9') {
+			run = run * 10 + (c - '0');
+			return;
+		}
+		if (c <= ' ') // whitespace may appear anywhere, even inside a run
+			return;
+
+		int count = run == 0 ? 1 : run;
+		run = 0;
+		if (c == '$') {
+			row += count;
+			col = 0;
+		} else if (c == '!') {
+			state = DONE;
+		} else if (c == 'b' || c == '.') {
+			col += count;
+		} else { // 'o', or any state other than dead in multi-state rules
+			if (row < height) {
+				boolean[] cells = grid[row + margin];
+				int end = Math.min(col + count, width);
+				for (int i = col; i < end; i++)
+					cells[i + margin] = true;
+			}
+			col += count;
+		}
+	}
+
+	/**
+	 * Parses the header line (x = 5, y = 2, rule = B3/S23) and makes the grid.
+	 */
+	private void header() throws IOException {
+		String[] fields = line.toString().split(",");
+		for (String field : fields) {
+			int equals = field.indexOf('=');
+			if (equals < 0)
+				continue;
+			String key = field.substring(0, equals).trim();
+			String value = field.substring(equals + 1).trim();
+			try {
+				if (key.equals("x"))
+					width = Integer.parseInt(value);
+				else if (key.equals("y"))
+					height = Integer.parseInt(value);
+				else if (key.equals("rule"))
+					rule = value;
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad header: " + line);
+			}
+		}
+		if (width < 0 || height < 0)
+			throw new IOException("Bad header: " + line);
+		grid = new boolean[height + margin * 2][width + margin * 2];
+	}
+
+	/**
+	 * @return the rule from the header, or null if it had none
+	 */
+	public String getRule() {
+		return rule;
+	}
+
+	/**
+	 * @return the comment lines, without their leading #
+	 */
+	public ArrayList<String> getComments() {
+		return comments;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
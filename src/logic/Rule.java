@@ -0,0 +1,181 @@
+package logic;
+
+/**
+ * A Life-like rule: the numbers of neighbours that bring a dead cell to life
+ * and that keep a live one alive, as in B3/S23. Rules are immutable.
+ * <p>
+ * The array engines look the next state up in a table. The bit-packed
+ * engines need the rule as boolean logic over the bits of the neighbour
+ * count, so each rule is compiled once into a class of its own (see
+ * RuleCompiler) that the JIT can inline just like hand-written rules.
+ *
+ */
+public final class Rule {
+
+	/**
+	 * The rule as boolean logic, 64 cells at a time.
+	 */
+	public interface Logic {
+		/**
+		 * @param c
+		 *            the cells
+		 * @param s0
+		 *            bit 0 of each cell's neighbour count
+		 * @param s3
+		 *            bit 3 of the count, only set for 8 neighbours
+		 * @return the next state of the cells
+		 */
+		public long next(long c, long s0, long s1, long s2, long s3);
+	}
+
+	public static final Rule CONWAY = parse("B3/S23");
+	public static final Rule HIGHLIFE = parse("B36/S23");
+	public static final Rule DAY_AND_NIGHT = parse("B3678/S34678");
+	public static final Rule SEEDS = parse("B2/S");
+
+	/** the rules offered by name, and their names */
+	public static final Rule[] RULES = { CONWAY, HIGHLIFE, DAY_AND_NIGHT,
+			SEEDS };
+	public static final String[] NAMES = { "Conway", "HighLife",
+			"Day & Night", "Seeds" };
+
+	private final int birth, survival; // bit n is set for n neighbours
+	private final boolean[] table = new boolean[18]; // by neighbours, +9 if alive
+	private Logic logic; // compiled when first needed
+	private PackedEngine.RuleKernel kernel; // copied when first needed
+
+	/**
+	 * @param birth
+	 *            bit n set if n neighbours bring a dead cell to life
+	 * @param survival
+	 *            bit n set if n neighbours keep a live cell alive
+	 */
+	public Rule(int birth, int survival) {
+		if ((birth | survival) >>> 9 != 0)
+			throw new IllegalArgumentException("counts go up to 8");
+		if ((birth & 1) != 0) // empty space would fill up
+			throw new IllegalArgumentException("B0 rules are not supported");
+		this.birth = birth;
+		this.survival = survival;
+		for (int n = 0; n <= 8; n++) {
+			table[n] = (birth >>> n & 1) != 0;
+			table[n + 9] = (survival >>> n & 1) != 0;
+		}
+	}
+
+	/**
+	 * Reads a rule in B/S notation (B36/S23), or the older S/B notation
+	 * (23/36). Case and spaces don't matter, and anything after a colon
+	 * (a Golly grid size) is ignored.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the text is not a rule this program can run
+	 */
+	public static Rule parse(String text) {
+		String s = text.replace(" ", "").toUpperCase();
+		int colon = s.indexOf(':');
+		if (colon >= 0)
+			s = s.substring(0, colon);
+		int slash = s.indexOf('/');
+		if (slash < 0)
+			throw new IllegalArgumentException("Not a B/S rule: " + text);
+		String first = s.substring(0, slash), second = s.substring(slash + 1);
+
+		String b, survive;
+		if (first.startsWith("B") && second.startsWith("S")) {
+			b = first.substring(1);
+			survive = second.substring(1);
+		} else if (first.startsWith("S") && second.startsWith("B")) {
+			b = second.substring(1);
+			survive = first.substring(1);
+		} else { // S/B: survival first
+			b = second;
+			survive = first;
+		}
+		return new Rule(counts(b, text), counts(survive, text));
+	}
+
+	/**
+	 * @return the digits as a bit mask
+	 */
+	private static int counts(String digits, String text) {
+		int mask = 0;
+		for (int i = 0; i < digits.length(); i++) {
+			char c = digits.charAt(i);
+			if (c < '0' || c > '8')
+				throw new IllegalArgumentException("Not a B/S rule: " + text);
+			mask |= 1 << (c - '0');
+		}
+		return mask;
+	}
+
+	/**
+	 * @return the next state of a cell with the given number of neighbours
+	 */
+	public boolean next(boolean alive, int neighbours) {
+		return table[alive ? neighbours + 9 : neighbours];
+	}
+
+	/**
+	 * @return the counts that bring a dead cell to life, as bit n for n
+	 */
+	public int getBirth() {
+		return birth;
+	}
+
+	/**
+	 * @return the counts that keep a live cell alive, as bit n for n
+	 */
+	public int getSurvival() {
+		return survival;
+	}
+
+	/**
+	 * @return the rule as boolean logic, compiled the first time it is asked
+	 *         for
+	 */
+	public synchronized Logic getLogic() {
+		if (logic == null)
+			logic = RuleCompiler.compile(this);
+		return logic;
+	}
+
+	/**
+	 * @return the packed engines' kernel for the rule, a copy of its own made
+	 *         the first time it is asked for
+	 */
+	synchronized PackedEngine.RuleKernel getKernel() {
+		if (kernel == null)
+			kernel = PackedEngine.kernel(getLogic());
+		return kernel;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Rule))
+			return false;
+		Rule r = (Rule) o;
+		return r.birth == birth && r.survival == survival;
+	}
+
+	@Override
+	public int hashCode() {
+		return birth << 9 | survival;
+	}
+
+	/**
+	 * @return the rule in B/S notation, as written to RLE headers
+	 */
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("B");
+		for (int n = 0; n <= 8; n++)
+			if ((birth >>> n & 1) != 0)
+				s.append(n);
+		s.append("/S");
+		for (int n = 0; n <= 8; n++)
+			if ((survival >>> n & 1) != 0)
+				s.append(n);
+		return s.toString();
+	}
+}
@@ -0,0 +1,564 @@
+package logic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+
+/**
+ * Turns a Rule into boolean logic over a cell and the bits of its neighbour
+ * count, and then into a class implementing Rule.Logic with that logic as
+ * straight-line bytecode. The class is defined as a hidden class, so it can
+ * be thrown away with the rule, and the JIT inlines it into the engines'
+ * loops like any other small method.
+ * <p>
+ * The logic is built by splitting the rule's truth table on one input at a
+ * time, folding the constant and repeated halves away, and keeping the
+ * smallest result over every order of the inputs. B3/S23 comes out as
+ * s1 & ~s2 & (s0 | c), the logic the engines used before rules could be
+ * changed.
+ *
+ */
+final class RuleCompiler {
+
+	/* the inputs, in the order Logic.next() takes them */
+	private static final int C = 0, S0 = 1, S1 = 2, S2 = 3, S3 = 4;
+	private static final int INPUTS = 5;
+
+	/* the kinds of node */
+	private static final int ZERO = 0, ONE = 1, INPUT = 2, NOT = 3, AND = 4,
+			OR = 5, XOR = 6;
+
+	/**
+	 * A node of the logic. Nodes are immutable.
+	 */
+	static final class Node {
+		final int op, input;
+		final Node a, b;
+
+		Node(int op, int input, Node a, Node b) {
+			this.op = op;
+			this.input = input;
+			this.a = a;
+			this.b = b;
+		}
+
+		/**
+		 * @return the number of operations it takes
+		 */
+		int cost() {
+			if (op <= INPUT)
+				return 0;
+			return 1 + a.cost() + (b == null ? 0 : b.cost());
+		}
+
+		/**
+		 * @return the result for 64 sets of inputs at once
+		 */
+		long eval(long[] in) {
+			switch (op) {
+			case ZERO:
+				return 0;
+			case ONE:
+				return -1L;
+			case INPUT:
+				return in[input];
+			case NOT:
+				return ~a.eval(in);
+			case AND:
+				return a.eval(in) & b.eval(in);
+			case OR:
+				return a.eval(in) | b.eval(in);
+			default:
+				return a.eval(in) ^ b.eval(in);
+			}
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Node))
+				return false;
+			Node n = (Node) o;
+			return n.op == op && n.input == input
+					&& (a == null ? n.a == null : a.equals(n.a))
+					&& (b == null ? n.b == null : b.equals(n.b));
+		}
+
+		@Override
+		public int hashCode() {
+			return toString().hashCode();
+		}
+
+		@Override
+		public String toString() {
+			switch (op) {
+			case ZERO:
+				return "0";
+			case ONE:
+				return "1";
+			case INPUT:
+				return input == C ? "c" : "s" + (input - 1);
+			case NOT:
+				return "~" + a;
+			case AND:
+				return "(" + a + " & " + b + ")";
+			case OR:
+				return "(" + a + " | " + b + ")";
+			default:
+				return "(" + a + " ^ " + b + ")";
+			}
+		}
+	}
+
+	private static final Node FALSE = new Node(ZERO, 0, null, null),
+			TRUE = new Node(ONE, 0, null, null), INPUTS_C = new Node(INPUT, C,
+					null, null);
+
+	private RuleCompiler() {
+	}
+
+	/**
+	 * @return the rule as a Logic, compiled to bytecode if the JVM allows it
+	 *         and interpreted otherwise
+	 */
+	static Rule.Logic compile(Rule rule) {
+		final Node logic = build(rule);
+		try {
+			return (Rule.Logic) define(logic, Rule.Logic.class, LONG);
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		} catch (LinkageError e) {
+			e.printStackTrace();
+		}
+		return new Rule.Logic() { // much slower, but right
+			@Override
+			public long next(long c, long s0, long s1, long s2, long s3) {
+				return logic.eval(new long[] { c, s0, s1, s2, s3 });
+			}
+		};
+	}
+
+	/**
+	 * @return the smallest logic found for the rule
+	 */
+	static Node build(Rule rule) {
+		// the truth table: 1 or 0, or -1 for counts that can't happen
+		int[] table = new int[1 << INPUTS];
+		int[] order = { S3, S2, S1, S0, C };
+		for (int i = 0; i < table.length; i++)
+			table[i] = value(rule, i, order);
+
+		Node best = null;
+		int[] inputs = new int[INPUTS];
+		for (int p = 0; p < 120; p++) { // every order of the 5 inputs
+			permutation(p, inputs);
+			int[] permuted = new int[table.length];
+			for (int i = 0; i < table.length; i++)
+				permuted[i] = table[reorder(i, inputs, order)];
+			Node n = split(permuted, inputs, 0);
+			if (best == null || n.cost() < best.cost())
+				best = n;
+		}
+		return best;
+	}
+
+	/**
+	 * @return the rule's output for the inputs given by the bits of index,
+	 *         the first input of the order being the highest bit
+	 */
+	private static int value(Rule rule, int index, int[] order) {
+		boolean[] in = new boolean[INPUTS];
+		for (int i = 0; i < INPUTS; i++)
+			in[order[i]] = (index >>> (INPUTS - 1 - i) & 1) != 0;
+		int n = (in[S0] ? 1 : 0) + (in[S1] ? 2 : 0) + (in[S2] ? 4 : 0)
+				+ (in[S3] ? 8 : 0);
+		if (n > 8)
+			return -1;
+		return rule.next(in[C], n) ? 1 : 0;
+	}
+
+	/**
+	 * @return the index, in a table ordered by from, of the entry at index
+	 *         in a table ordered by to
+	 */
+	private static int reorder(int index, int[] to, int[] from) {
+		int result = 0;
+		for (int i = 0; i < INPUTS; i++) {
+			int bit = index >>> (INPUTS - 1 - i) & 1;
+			for (int j = 0; j < INPUTS; j++)
+				if (from[j] == to[i])
+					result |= bit << (INPUTS - 1 - j);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the p'th ordering of the inputs into order.
+	 */
+	private static void permutation(int p, int[] order) {
+		boolean[] used = new boolean[INPUTS];
+		for (int i = 0; i < INPUTS; i++) {
+			int f = 1;
+			for (int k = 2; k < INPUTS - i; k++)
+				f *= k;
+			int pick = p / f;
+			p %= f;
+			for (int j = 0; j < INPUTS; j++)
+				if (!used[j] && pick-- == 0) {
+					used[j] = true;
+					order[i] = j;
+					break;
+				}
+		}
+	}
+
+	/**
+	 * Builds the logic for a truth table over inputs[depth] onwards, the
+	 * first of them being the highest bit of the index.
+	 */
+	private static Node split(int[] table, int[] inputs, int depth) {
+		int value = -1; // a constant, if every entry that can happen agrees
+		boolean constant = true;
+		for (int t : table)
+			if (t >= 0) {
+				if (value >= 0 && t != value)
+					constant = false;
+				value = t;
+			}
+		if (constant)
+			return value == 1 ? TRUE : FALSE;
+
+		int half = table.length / 2;
+		int[] low = new int[half], high = new int[half];
+		System.arraycopy(table, 0, low, 0, half);
+		System.arraycopy(table, half, high, 0, half);
+
+		// if the halves never disagree the input doesn't matter
+		int[] merged = new int[half];
+		boolean agree = true;
+		for (int i = 0; i < half && agree; i++) {
+			if (low[i] >= 0 && high[i] >= 0 && low[i] != high[i])
+				agree = false;
+			merged[i] = low[i] >= 0 ? low[i] : high[i];
+		}
+		if (agree)
+			return split(merged, inputs, depth + 1);
+
+		Node v = new Node(INPUT, inputs[depth], null, null);
+		return mux(v, split(high, inputs, depth + 1),
+				split(low, inputs, depth + 1));
+	}
+
+	/**
+	 * @return v ? high : low, simplified
+	 */
+	private static Node mux(Node v, Node high, Node low) {
+		if (high.equals(low))
+			return high;
+		if (high == TRUE && low == FALSE)
+			return v;
+		if (high == FALSE && low == TRUE)
+			return not(v);
+		if (low == FALSE)
+			return new Node(AND, 0, v, high);
+		if (high == FALSE)
+			return new Node(AND, 0, not(v), low);
+		if (high == TRUE)
+			return new Node(OR, 0, v, low);
+		if (low == TRUE)
+			return new Node(OR, 0, not(v), high);
+		if (high.equals(not(low)))
+			return new Node(XOR, 0, v, low);
+		return new Node(XOR, 0, low, new Node(AND, 0, v, new Node(XOR, 0,
+				high, low)));
+	}
+
+	private static Node not(Node n) {
+		if (n == TRUE)
+			return FALSE;
+		if (n == FALSE)
+			return TRUE;
+		if (n.op == NOT)
+			return n.a;
+		return new Node(NOT, 0, n, null);
+	}
+
+	/** the type of the inputs and result of Rule.Logic.next() */
+	static final String LONG = "J";
+
+	/* the opcodes used */
+	private static final int ALOAD = 0x19, ALOAD_0 = 0x2a, ARETURN = 0xb0,
+			GETSTATIC = 0xb2, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7,
+			RETURN = 0xb1, LLOAD = 0x16, LCONST_0 = 0x09, LDC2_W = 0x14,
+			LAND = 0x7f, LOR = 0x81, LXOR = 0x83, LRETURN = 0xad;
+
+	private static final String VECTOR = "jdk/incubator/vector/LongVector";
+
+	/**
+	 * Defines a class implementing an interface whose one method, next(),
+	 * takes the five inputs and returns the logic's result.
+	 *
+	 * @param type
+	 *            LONG, or the descriptor of jdk.incubator.vector.LongVector
+	 *            for logic done with the Vector API
+	 * @return an instance of the class
+	 */
+	static Object define(Node logic, Class<?> logicInterface, String type)
+			throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(
+				assemble(logic, logicInterface.getName().replace('.', '/'),
+						type), true);
+		return lookup.lookupClass().getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * The constant pool of a class being assembled. Each entry is added the
+	 * first time it is asked for.
+	 */
+	private static final class Pool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+		private int size = 1;
+
+		private int add(String key, int slots) {
+			Integer index = entries.get(key);
+			if (index != null)
+				return -index; // already written
+			entries.put(key, size);
+			size += slots;
+			return size - slots;
+		}
+
+		int utf8(String s) throws IOException {
+			int i = add("U" + s, 1);
+			if (i > 0) {
+				out.writeByte(1);
+				out.writeUTF(s);
+			}
+			return Math.abs(i);
+		}
+
+		int classRef(String name) throws IOException {
+			int utf8 = utf8(name);
+			int i = add("C" + name, 1);
+			if (i > 0) {
+				out.writeByte(7);
+				out.writeShort(utf8);
+			}
+			return Math.abs(i);
+		}
+
+		/**
+		 * @param tag
+		 *            9 for a field, 10 for a method
+		 */
+		int memberRef(int tag, String owner, String name, String type)
+				throws IOException {
+			int c = classRef(owner), n = utf8(name), t = utf8(type);
+			int nameAndType = add("N" + name + type, 1);
+			if (nameAndType > 0) {
+				out.writeByte(12);
+				out.writeShort(n);
+				out.writeShort(t);
+			}
+			int i = add(tag + owner + "." + name + type, 1);
+			if (i > 0) {
+				out.writeByte(tag);
+				out.writeShort(c);
+				out.writeShort(Math.abs(nameAndType));
+			}
+			return Math.abs(i);
+		}
+
+		int minusOne() throws IOException {
+			int i = add("J-1", 2); // longs take two entries
+			if (i > 0) {
+				out.writeByte(5);
+				out.writeLong(-1L);
+			}
+			return Math.abs(i);
+		}
+	}
+
+	/**
+	 * @return a class file for a final class implementing the interface with
+	 *         the given logic
+	 */
+	static byte[] assemble(Node logic, String logicInterface, String type) {
+		try {
+			Pool pool = new Pool();
+			int thisClass = pool.classRef("logic/CompiledRule"); // made unique
+			int object = pool.classRef("java/lang/Object");
+			int implemented = pool.classRef(logicInterface);
+			int init = pool.utf8("<init>"), noArgs = pool.utf8("()V");
+			int superInit = pool.memberRef(10, "java/lang/Object", "<init>",
+					"()V");
+			int next = pool.utf8("next");
+			int signature = pool.utf8("(" + type + type + type + type + type
+					+ ")" + type);
+			int code = pool.utf8("Code");
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			if (type.equals(LONG)) {
+				emit(logic, body, pool);
+				body.write(LRETURN);
+			} else {
+				emitVector(logic, body, pool);
+				body.write(ARETURN);
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(52); // Java 8 class files need no stack maps here
+			out.writeShort(pool.size);
+			pool.bytes.writeTo(out);
+
+			out.writeShort(0x0031); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(object);
+			out.writeShort(1);
+			out.writeShort(implemented);
+			out.writeShort(0); // no fields
+			out.writeShort(2); // methods
+
+			byte[] constructor = { (byte) ALOAD_0, (byte) INVOKESPECIAL,
+					(byte) (superInit >> 8), (byte) superInit, (byte) RETURN };
+			method(out, init, noArgs, code, 1, 1, constructor);
+			boolean longs = type.equals(LONG);
+			method(out, next, signature, code, longs ? stack(logic)
+					: vectorStack(logic), longs ? 11 : 6, body.toByteArray());
+
+			out.writeShort(0); // no attributes
+			return bytes.toByteArray();
+		} catch (IOException e) { // can't happen writing to memory
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void method(DataOutputStream out, int name, int type,
+			int code, int stack, int locals, byte[] body) throws IOException {
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(code);
+		out.writeInt(12 + body.length);
+		out.writeShort(stack);
+		out.writeShort(locals);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0); // no exception handlers
+		out.writeShort(0); // no attributes
+	}
+
+	private static void index(ByteArrayOutputStream code, int index) {
+		code.write(index >> 8);
+		code.write(index);
+	}
+
+	/**
+	 * Writes code that leaves the node's value on the stack, as a long.
+	 */
+	private static void emit(Node n, ByteArrayOutputStream code, Pool pool)
+			throws IOException {
+		switch (n.op) {
+		case ZERO:
+			code.write(LCONST_0);
+			break;
+		case ONE:
+			code.write(LDC2_W);
+			index(code, pool.minusOne());
+			break;
+		case INPUT: // a long in local 1 + 2 * input, after this
+			code.write(LLOAD);
+			code.write(1 + 2 * n.input);
+			break;
+		case NOT:
+			emit(n.a, code, pool);
+			emit(TRUE, code, pool);
+			code.write(LXOR);
+			break;
+		default:
+			emit(n.a, code, pool);
+			emit(n.b, code, pool);
+			code.write(n.op == AND ? LAND : n.op == OR ? LOR : LXOR);
+		}
+	}
+
+	/**
+	 * @return the stack the node's code needs, in slots
+	 */
+	private static int stack(Node n) {
+		if (n.op <= INPUT)
+			return 2;
+		if (n.op == NOT)
+			return Math.max(stack(n.a), 4);
+		return Math.max(stack(n.a), 2 + stack(n.b));
+	}
+
+	/**
+	 * Writes code that leaves the node's value on the stack, as a LongVector.
+	 */
+	private static void emitVector(Node n, ByteArrayOutputStream code,
+			Pool pool) throws IOException {
+		String vector = "L" + VECTOR + ";";
+		String anyVector = "Ljdk/incubator/vector/Vector;";
+		switch (n.op) {
+		case ZERO: // c ^ c
+			emitVector(new Node(XOR, 0, INPUTS_C, INPUTS_C), code, pool);
+			break;
+		case ONE:
+			emitVector(new Node(NOT, 0, FALSE, null), code, pool);
+			break;
+		case INPUT: // a reference in local 1 + input
+			code.write(ALOAD);
+			code.write(1 + n.input);
+			break;
+		case NOT:
+			emitVector(n.a, code, pool);
+			code.write(INVOKEVIRTUAL);
+			index(code, pool.memberRef(10, VECTOR, "not", "()" + vector));
+			break;
+		case XOR:
+			emitVector(n.a, code, pool);
+			code.write(GETSTATIC);
+			index(code, pool.memberRef(9, "jdk/incubator/vector/VectorOperators",
+					"XOR", "Ljdk/incubator/vector/VectorOperators$Associative;"));
+			emitVector(n.b, code, pool);
+			code.write(INVOKEVIRTUAL);
+			index(code, pool.memberRef(10, VECTOR, "lanewise",
+					"(Ljdk/incubator/vector/VectorOperators$Binary;" + anyVector
+							+ ")" + vector));
+			break;
+		default:
+			emitVector(n.a, code, pool);
+			emitVector(n.b, code, pool);
+			code.write(INVOKEVIRTUAL);
+			index(code, pool.memberRef(10, VECTOR, n.op == AND ? "and" : "or",
+					"(" + anyVector + ")" + vector));
+		}
+	}
+
+	/**
+	 * @return the stack the node's vector code needs, in slots
+	 */
+	private static int vectorStack(Node n) {
+		switch (n.op) {
+		case ZERO:
+		case ONE:
+			return 3;
+		case INPUT:
+			return 1;
+		case NOT:
+			return vectorStack(n.a);
+		case XOR:
+			return Math.max(vectorStack(n.a), 2 + vectorStack(n.b));
+		default:
+			return Math.max(vectorStack(n.a), 1 + vectorStack(n.b));
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package logic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measurements of a running simulation, registered as an MBean so they can
+ * be watched from JConsole or scraped by an agent.
+ * <p>
+ * Recording is a few stores into plain fields and rings of recent samples,
+ * each written by one thread at a time (the stepping thread under the
+ * colony's lock, or the event thread), so the stepping code pays nothing
+ * for locks. The exception is the dispatch times, which come from the event
+ * thread and every background listener's thread at once, so that ring is
+ * locked. Percentiles and rates are worked out when they are read; a reader
+ * may see a sample or two late.
+ *
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+
+	/** the name the metrics are registered under */
+	public static final String OBJECT_NAME = "life:type=Simulation";
+
+	/** the number of recent samples percentiles are taken over */
+	public static final int SAMPLES = 1024;
+
+	/* the shortest time rates are measured over */
+	private static final long RATE_INTERVAL = 1000000000L; // ns
+
+	private static final ThreadMXBean threads = ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * The most recent SAMPLES values of something, as a ring.
+	 */
+	private static final class Samples {
+		private final long[] values = new long[SAMPLES];
+		private long count;
+
+		void record(long value) {
+			values[(int) (count % SAMPLES)] = value;
+			count++;
+		}
+
+		/**
+		 * @return the value that the given fraction of the samples are no
+		 *         bigger than, or 0 if there are none
+		 */
+		long percentile(double fraction) {
+			int n = (int) Math.min(count, SAMPLES);
+			if (n == 0)
+				return 0;
+			long[] sorted = Arrays.copyOf(values, n);
+			Arrays.sort(sorted);
+			return sorted[Math.min(n - 1, (int) (fraction * n))];
+		}
+
+		long mean() {
+			int n = (int) Math.min(count, SAMPLES);
+			long sum = 0;
+			for (int i = 0; i < n; i++)
+				sum += values[i];
+			return n == 0 ? 0 : sum / n;
+		}
+	}
+
+	private final Samples steps = new Samples(), renders = new Samples(),
+			dispatches = new Samples(), allocations = new Samples();
+	private volatile String engine = "";
+	private volatile long generation, population;
+	private volatile long generations, cells; // stepped, in total
+
+	/* the totals when the rates were last worked out */
+	private long sampleTime = System.nanoTime(), sampleGenerations,
+			sampleCells;
+	private double generationRate, cellRate;
+
+	/**
+	 * Registers the metrics with the platform MBean server.
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * @return the bytes the current thread has allocated so far, or 0 if the
+	 *         JVM can't tell
+	 */
+	public static long allocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getCurrentThreadAllocatedBytes();
+		return 0;
+	}
+
+	/**
+	 * Records a step.
+	 *
+	 * @param generations
+	 *            the generations it went forward
+	 * @param cells
+	 *            the cells it computed, counting each generation
+	 * @param nanos
+	 *            how long it took
+	 * @param bytes
+	 *            what it allocated on the stepping thread
+	 */
+	public void stepped(long generations, long cells, long nanos, long bytes) {
+		this.generations += generations; // only written by the stepper
+		this.cells += cells;
+		steps.record(nanos);
+		allocations.record(bytes / Math.max(1, generations));
+	}
+
+	/**
+	 * Records which engine is stepping the colony.
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = Engines.describe(engine);
+	}
+
+	/**
+	 * Records the current generation and population.
+	 */
+	public void setState(long generation, long population) {
+		this.generation = generation;
+		this.population = population;
+	}
+
+	/**
+	 * Records how long painting the colony took.
+	 */
+	public void rendered(long nanos) {
+		renders.record(nanos);
+	}
+
+	/**
+	 * Records how long telling a listener about a change took. May be called
+	 * on any thread.
+	 */
+	public void dispatched(long nanos) {
+		synchronized (dispatches) { // may be called on several threads
+			dispatches.record(nanos);
+		}
+	}
+
+	/**
+	 * Works out the rates again if the last time was long enough ago.
+	 */
+	private synchronized void sampleRates() {
+		long now = System.nanoTime();
+		if (now - sampleTime < RATE_INTERVAL)
+			return;
+		long g = generations, c = cells;
+		double seconds = (now - sampleTime) / 1e9;
+		generationRate = (g - sampleGenerations) / seconds;
+		cellRate = (c - sampleCells) / seconds;
+		sampleTime = now;
+		sampleGenerations = g;
+		sampleCells = c;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	@Override
+	public String getEngine() {
+		return engine;
+	}
+
+	@Override
+	public long getGeneration() {
+		return generation;
+	}
+
+	@Override
+	public long getPopulation() {
+		return population;
+	}
+
+	@Override
+	public synchronized double getGenerationsPerSecond() {
+		sampleRates();
+		return generationRate;
+	}
+
+	@Override
+	public synchronized double getCellsPerSecond() {
+		sampleRates();
+		return cellRate;
+	}
+
+	@Override
+	public double getStepMillis50() {
+		return millis(steps.percentile(0.5));
+	}
+
+	@Override
+	public double getStepMillis90() {
+		return millis(steps.percentile(0.9));
+	}
+
+	@Override
+	public double getStepMillis99() {
+		return millis(steps.percentile(0.99));
+	}
+
+	@Override
+	public double getStepMillisMax() {
+		return millis(steps.percentile(1));
+	}
+
+	@Override
+	public double getRenderMillis50() {
+		return millis(renders.percentile(0.5));
+	}
+
+	@Override
+	public double getRenderMillis99() {
+		return millis(renders.percentile(0.99));
+	}
+
+	@Override
+	public double getDispatchMillis50() {
+		synchronized (dispatches) {
+			return millis(dispatches.percentile(0.5));
+		}
+	}
+
+	@Override
+	public double getDispatchMillis99() {
+		synchronized (dispatches) {
+			return millis(dispatches.percentile(0.99));
+		}
+	}
+
+	@Override
+	public long getBytesAllocatedPerGeneration() {
+		return allocations.mean();
+	}
+}
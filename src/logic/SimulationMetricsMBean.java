@@ -0,0 +1,39 @@
+package logic;
+
+/**
+ * What SimulationMetrics shows through JMX. Times are in milliseconds.
+ *
+ */
+public interface SimulationMetricsMBean {
+
+	/**
+	 * @return the engine stepping the colony, as Engines.describe() puts it
+	 */
+	public String getEngine();
+
+	public long getGeneration();
+
+	public long getPopulation();
+
+	public double getGenerationsPerSecond();
+
+	public double getCellsPerSecond();
+
+	public double getStepMillis50();
+
+	public double getStepMillis90();
+
+	public double getStepMillis99();
+
+	public double getStepMillisMax();
+
+	public double getRenderMillis50();
+
+	public double getRenderMillis99();
+
+	public double getDispatchMillis50();
+
+	public double getDispatchMillis99();
+
+	public long getBytesAllocatedPerGeneration();
+}
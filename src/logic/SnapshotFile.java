@@ -0,0 +1,259 @@
+package logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A binary colony snapshot (.lifb). The cells are stored bit-packed exactly
+ * as PackedEngine holds them, so a file is memory-mapped and copied straight
+ * into an engine with no parsing at all.
+ * <p>
+ * The layout is little-endian: the magic "LIFB", a version, the width and
+ * height, the generation number, the length of the rule and its ASCII text,
+ * padded to a multiple of 8 bytes. Then come height rows of (width + 63) / 64
+ * longs, bit j of word k being column 64k + j.
+ *
+ */
+public class SnapshotFile {
+
+	public static final String EXTENSION = ".lifb";
+	public static final int MAGIC = 0x4246494c; // "LIFB" read little-endian
+	public static final int VERSION = 1;
+
+	/** the most longs an engine's array can hold, borders included */
+	private static final long MAX_WORDS = Integer.MAX_VALUE - 8;
+
+	private int width, height;
+	private long generation;
+	private String rule;
+	private LongBuffer[] rows; // whole rows, mapped a piece at a time
+
+	private SnapshotFile() {
+	}
+
+	/**
+	 * Maps a snapshot into memory. The cells are not read until they are
+	 * asked for. A mapping can hold at most 2 GB, so larger files are mapped
+	 * in pieces of whole rows.
+	 */
+	public static SnapshotFile open(File f) throws IOException {
+		FileChannel channel = FileChannel.open(f.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < 28)
+				throw new IOException("Not a snapshot: " + f);
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, 28);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			SnapshotFile snapshot = new SnapshotFile();
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a snapshot: " + f);
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("Unknown snapshot version " + version);
+			snapshot.width = buffer.getInt();
+			snapshot.height = buffer.getInt();
+			snapshot.generation = buffer.getLong();
+			int length = buffer.getInt();
+			if (snapshot.width < 0 || snapshot.height < 0 || length < 0
+					|| length > size - 28 || headerSize(length) > size)
+				throw new IOException("Bad snapshot header: " + f);
+			byte[] rule = new byte[length];
+			channel.map(FileChannel.MapMode.READ_ONLY, 28, length).get(rule);
+			snapshot.rule = new String(rule, StandardCharsets.US_ASCII);
+
+			int perRow = (snapshot.width + 63) >>> 6;
+			long words = (long) perRow * snapshot.height;
+			if (size - headerSize(length) < words * 8)
+				throw new IOException("Snapshot is truncated: " + f);
+			if ((snapshot.height + 2L) * perRow > MAX_WORDS)
+				throw new IOException("Snapshot too large to load: " + f);
+			int perChunk = Integer.MAX_VALUE / Math.max(8, perRow * 8);
+			int chunks = (snapshot.height + perChunk - 1) / perChunk;
+			snapshot.rows = new LongBuffer[chunks];
+			for (int i = 0; i < chunks; i++) {
+				int count = Math.min(perChunk, snapshot.height - i * perChunk);
+				snapshot.rows[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						headerSize(length) + (long) i * perChunk * perRow * 8,
+						(long) count * perRow * 8)
+						.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			}
+			return snapshot;
+		} finally {
+			channel.close(); // the mappings stay valid
+		}
+	}
+
+	/**
+	 * @return the bytes before the rows, which start 8-byte aligned
+	 */
+	private static int headerSize(int ruleLength) {
+		return (28 + ruleLength + 7) & ~7;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public String getRule() {
+		return rule;
+	}
+
+	/**
+	 * Copies the cells into the engine, resizing it to fit.
+	 */
+	public void loadInto(PackedEngine engine) {
+		LongBuffer[] parts = new LongBuffer[rows.length];
+		for (int i = 0; i < rows.length; i++)
+			parts[i] = rows[i].duplicate();
+		engine.load(width, height, parts);
+	}
+
+	/**
+	 * Copies the cells into the engine, straight from the file if it is
+	 * packed and through a grid otherwise.
+	 */
+	public void loadInto(Engine engine) {
+		if (engine instanceof PackedEngine)
+			loadInto((PackedEngine) engine);
+		else
+			engine.load(toGrid());
+	}
+
+	/**
+	 * @return the cells as a grid
+	 */
+	public boolean[][] toGrid() {
+		int words = (width + 63) >>> 6;
+		boolean[][] grid = new boolean[height][width];
+		int part = 0;
+		LongBuffer in = rows.length == 0 ? null : rows[0].duplicate();
+		for (int row = 0; row < height; row++) {
+			if (words > 0 && !in.hasRemaining())
+				in = rows[++part].duplicate();
+			boolean[] cells = grid[row];
+			for (int k = 0; k < words; k++) {
+				long word = in.get();
+				while (word != 0) {
+					int col = (k << 6) + Long.numberOfTrailingZeros(word);
+					if (col < width)
+						cells[col] = true;
+					word &= word - 1;
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Saves a grid as a snapshot.
+	 *
+	 * @param rule
+	 *            the rule, or null for B3/S23
+	 */
+	public static void save(boolean[][] grid, String rule, long generation,
+			File file) throws IOException {
+		save(new PackedEngine(grid), rule, generation, file);
+	}
+
+	/**
+	 * Saves the cells of an engine as a snapshot. Like PatternWriter, the file
+	 * is written to a temporary file first and renamed into place, and
+	 * interrupting the thread stops the save (with a
+	 * ClosedByInterruptException from the channel).
+	 *
+	 * @param rule
+	 *            the rule, or null for B3/S23
+	 */
+	public static void save(Engine engine, String rule, long generation,
+			File file) throws IOException {
+		byte[] ruleBytes = (rule == null ? PatternWriter.DEFAULT_RULE : rule)
+				.getBytes(StandardCharsets.US_ASCII);
+		int width = engine.getWidth(), height = engine.getHeight();
+		int words = (width + 63) >>> 6;
+
+		File temp = AtomicSave.createTemp(file);
+		try {
+			FileChannel channel = FileChannel.open(temp.toPath(),
+					StandardOpenOption.WRITE);
+			try {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(
+						Math.max(64 * 1024, headerSize(ruleBytes.length)))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(width)
+						.putInt(height).putLong(generation)
+						.putInt(ruleBytes.length).put(ruleBytes);
+				while (buffer.position() < headerSize(ruleBytes.length))
+					buffer.put((byte) 0);
+				write(channel, buffer);
+
+				// as many whole rows as fit in the buffer at a time
+				LongBuffer longs = buffer.asLongBuffer();
+				int perChunk = Math.max(1,
+						longs.capacity() / Math.max(1, words));
+				if (perChunk * words > longs.capacity()) { // very wide rows
+					buffer = ByteBuffer.allocateDirect(words * 8).order(
+							ByteOrder.LITTLE_ENDIAN);
+					longs = buffer.asLongBuffer();
+				}
+				long[] packed = engine instanceof PackedEngine ? null
+						: new long[words];
+				for (int row = 0; row < height; row += perChunk) {
+					int count = Math.min(perChunk, height - row);
+					longs.clear();
+					if (packed == null) {
+						((PackedEngine) engine).getRows(row, count, longs);
+					} else {
+						for (int r = row; r < row + count; r++) {
+							pack(engine, r, packed);
+							longs.put(packed);
+						}
+					}
+					buffer.position(longs.position() * 8);
+					write(channel, buffer);
+				}
+			} finally {
+				channel.close();
+			}
+			AtomicSave.replace(temp, file);
+		} finally {
+			temp.delete(); // only still there if something went wrong
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Packs one row of an engine that doesn't hold its cells packed.
+	 */
+	private static void pack(Engine engine, int row, long[] packed) {
+		Arrays.fill(packed, 0);
+		for (int col = 0; col < engine.getWidth(); col++)
+			if (engine.get(row, col))
+				packed[col >>> 6] |= 1L << (col & 63);
+	}
+}
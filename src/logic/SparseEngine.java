@@ -0,0 +1,333 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An unbounded engine. The universe is a hash map of 64x64 tiles keyed by
+ * their tile coordinates; tiles are created when activity reaches them and
+ * freed when they go empty, so memory follows the live cells instead of a
+ * preallocated rectangle.
+ * <p>
+ * The width and height only set the window that get() and getGrid() look
+ * through. Spaceships and gun output keep going past it, and are found with
+ * getBounds().
+ *
+ */
+public class SparseEngine implements UnboundedEngine {
+
+	/** the width and height of a tile */
+	public static final int TILE_SIZE = 64;
+
+	/**
+	 * 64 rows of 64 cells. Bit j of cells[i] is the cell in row i, column j
+	 * of the tile.
+	 */
+	private static final class Tile {
+		long key;
+		long[] cells = new long[TILE_SIZE];
+		long[] next = new long[TILE_SIZE];
+
+		Tile(long key) {
+			this.key = key;
+		}
+
+		boolean isEmpty() {
+			for (int i = 0; i < TILE_SIZE; i++)
+				if (cells[i] != 0)
+					return false;
+			return true;
+		}
+
+		/** whether any cell on the edge of the tile is alive */
+		boolean touchesEdge() {
+			if (cells[0] != 0 || cells[TILE_SIZE - 1] != 0)
+				return true;
+			for (int i = 1; i < TILE_SIZE - 1; i++)
+				if ((cells[i] & 0x8000000000000001L) != 0)
+					return true;
+			return false;
+		}
+	}
+
+	/** at most this many freed tiles are kept for reuse */
+	public static final int MAX_SPARE = 256;
+
+	private static final long[] BLANK = new long[TILE_SIZE];
+
+	private HashMap<Long, Tile> tiles = new HashMap<Long, Tile>();
+	private int width, height; // the window onto the universe
+
+	/* reused between generations so stepping doesn't allocate per tile */
+	private CellChangeListener listener;
+	private Rule rule = Rule.CONWAY;
+	private PackedEngine.RuleKernel kernel = rule.getKernel();
+	private ArrayList<Tile> work = new ArrayList<Tile>();
+	private ArrayList<Tile> spare = new ArrayList<Tile>();
+	private long[] w = new long[TILE_SIZE + 2], c = new long[TILE_SIZE + 2],
+			e = new long[TILE_SIZE + 2];
+
+	public SparseEngine(boolean[][] grid) {
+		load(grid);
+	}
+
+	private static long key(long tileRow, long tileColumn) {
+		return (tileRow << 32) | (tileColumn & 0xffffffffL);
+	}
+
+	private static long tileRow(long key) {
+		return key >> 32;
+	}
+
+	private static long tileColumn(long key) {
+		return (int) key;
+	}
+
+	private Tile tile(long tileRow, long tileColumn) {
+		return tiles.get(key(tileRow, tileColumn));
+	}
+
+	private long[] cellsOf(long tileRow, long tileColumn) {
+		Tile t = tile(tileRow, tileColumn);
+		return t == null ? BLANK : t.cells;
+	}
+
+	/**
+	 * @return the tile, creating it if necessary
+	 */
+	private Tile create(long tileRow, long tileColumn) {
+		long key = key(tileRow, tileColumn);
+		Tile t = tiles.get(key);
+		if (t == null) {
+			if (spare.isEmpty()) {
+				t = new Tile(key);
+			} else { // reuse a freed tile
+				t = spare.remove(spare.size() - 1);
+				t.key = key;
+			}
+			tiles.put(key, t);
+		}
+		return t;
+	}
+
+	@Override
+	public void load(boolean[][] grid) {
+		height = grid.length;
+		width = height == 0 ? 0 : grid[0].length;
+		tiles.clear();
+		for (int row = 0; row < height; row++)
+			for (int col = 0; col < width; col++)
+				if (grid[row][col])
+					set(row, col, true);
+	}
+
+	@Override
+	public void step() {
+		// make room for births next to tiles with cells on their edges
+		work.clear();
+		work.addAll(tiles.values());
+		for (Tile t : work) {
+			if (!t.touchesEdge())
+				continue;
+			long tr = tileRow(t.key), tc = tileColumn(t.key);
+			for (long r = tr - 1; r <= tr + 1; r++)
+				for (long col = tc - 1; col <= tc + 1; col++)
+					create(r, col);
+		}
+
+		work.clear();
+		work.addAll(tiles.values());
+		for (Tile t : work)
+			stepTile(t);
+
+		// swap the buffers and free the tiles that died out
+		for (Tile t : work) {
+			long[] temp = t.cells;
+			t.cells = t.next;
+			t.next = temp;
+			if (t.isEmpty()) {
+				tiles.remove(t.key);
+				if (spare.size() < MAX_SPARE)
+					spare.add(t);
+			}
+		}
+	}
+
+	@Override
+	public long getStepSize() {
+		return 1;
+	}
+
+	@Override
+	public void setCellChangeListener(CellChangeListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = rule;
+		kernel = rule.getKernel();
+	}
+
+	@Override
+	public Rule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Does nothing: the universe has no edges to wrap around.
+	 */
+	@Override
+	public void setToroidal(boolean toroidal) {
+	}
+
+	@Override
+	public boolean isToroidal() {
+		return false;
+	}
+
+	/**
+	 * Computes the next generation of a tile into its next buffer.
+	 */
+	private void stepTile(Tile t) {
+		long tr = tileRow(t.key), tc = tileColumn(t.key);
+		long[] north = cellsOf(tr - 1, tc), south = cellsOf(tr + 1, tc);
+		long[] west = cellsOf(tr, tc - 1), east = cellsOf(tr, tc + 1);
+		long[] nw = cellsOf(tr - 1, tc - 1), ne = cellsOf(tr - 1, tc + 1);
+		long[] sw = cellsOf(tr + 1, tc - 1), se = cellsOf(tr + 1, tc + 1);
+
+		// rows -1 to 64 shifted so every bit sees its west and east neighbour
+		int last = TILE_SIZE - 1;
+		shift(0, north[last], nw[last], ne[last]);
+		for (int i = 0; i < TILE_SIZE; i++)
+			shift(i + 1, t.cells[i], west[i], east[i]);
+		shift(TILE_SIZE + 1, south[0], sw[0], se[0]);
+
+		kernel.stepColumn(w, c, e, t.next, TILE_SIZE);
+
+		if (listener != null)
+			for (int i = 0; i < TILE_SIZE; i++) {
+				long before = t.cells[i], after = t.next[i];
+				if (before != after)
+					listener.cellsChanged(tr * TILE_SIZE + i, tc * TILE_SIZE,
+							after & ~before, before & ~after);
+			}
+	}
+
+	/**
+	 * Stores a row and its west and east shifted versions.
+	 */
+	private void shift(int i, long row, long westRow, long eastRow) {
+		c[i] = row;
+		w[i] = (row << 1) | (westRow >>> 63);
+		e[i] = (row >>> 1) | (eastRow << 63);
+	}
+
+	@Override
+	public boolean get(int row, int column) {
+		if (row < 0 || row >= height || column < 0 || column >= width)
+			return false;
+		Tile t = tile(row / TILE_SIZE, column / TILE_SIZE);
+		return t != null
+				&& (t.cells[row % TILE_SIZE] >>> (column % TILE_SIZE) & 1) != 0;
+	}
+
+	@Override
+	public void set(int row, int column, boolean alive) {
+		if (row < 0 || row >= height || column < 0 || column >= width)
+			return;
+		long bit = 1L << (column % TILE_SIZE);
+		if (alive) {
+			create(row / TILE_SIZE, column / TILE_SIZE).cells[row % TILE_SIZE] |= bit;
+		} else {
+			Tile t = tile(row / TILE_SIZE, column / TILE_SIZE);
+			if (t != null)
+				t.cells[row % TILE_SIZE] &= ~bit;
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the number of live cells in the whole universe, including those
+	 *         outside the window
+	 */
+	@Override
+	public long getPopulation() {
+		long count = 0;
+		for (Tile t : tiles.values())
+			for (int i = 0; i < TILE_SIZE; i++)
+				count += Long.bitCount(t.cells[i]);
+		return count;
+	}
+
+	/**
+	 * @return the number of tiles in use
+	 */
+	public int getTileCount() {
+		return tiles.size();
+	}
+
+	@Override
+	public boolean[][] getGrid() {
+		return getGrid(0, 0, height, width);
+	}
+
+	@Override
+	public long[] getBounds() {
+		long top = Long.MAX_VALUE, left = Long.MAX_VALUE;
+		long bottom = Long.MIN_VALUE, right = Long.MIN_VALUE;
+		for (Tile t : tiles.values()) {
+			long columns = 0; // the columns of the tile with live cells
+			int first = -1, last = -1;
+			for (int i = 0; i < TILE_SIZE; i++)
+				if (t.cells[i] != 0) {
+					columns |= t.cells[i];
+					if (first < 0)
+						first = i;
+					last = i;
+				}
+			if (first < 0)
+				continue;
+			long tileTop = tileRow(t.key) * TILE_SIZE;
+			long tileLeft = tileColumn(t.key) * TILE_SIZE;
+			top = Math.min(top, tileTop + first);
+			bottom = Math.max(bottom, tileTop + last);
+			left = Math.min(left,
+					tileLeft + Long.numberOfTrailingZeros(columns));
+			right = Math.max(right,
+					tileLeft + 63 - Long.numberOfLeadingZeros(columns));
+		}
+		if (top > bottom)
+			return null;
+		return new long[] { top, left, bottom - top + 1, right - left + 1 };
+	}
+
+	@Override
+	public boolean[][] getGrid(long top, long left, int height, int width) {
+		boolean[][] grid = new boolean[height][width];
+		for (Tile t : tiles.values()) {
+			long tileTop = tileRow(t.key) * TILE_SIZE - top;
+			long tileLeft = tileColumn(t.key) * TILE_SIZE - left;
+			for (int i = 0; i < TILE_SIZE; i++) {
+				long row = tileTop + i;
+				if (row < 0 || row >= height || t.cells[i] == 0)
+					continue;
+				for (int j = 0; j < TILE_SIZE; j++) {
+					long col = tileLeft + j;
+					if (col >= 0 && col < width && (t.cells[i] >>> j & 1) != 0)
+						grid[(int) row][(int) col] = true;
+				}
+			}
+		}
+		return grid;
+	}
+}
@@ -0,0 +1,155 @@
+package logic;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A bit-packed engine that divides the grid into tiles of 64 by 64 cells and
+ * only recomputes the tiles that changed in the last generation, or that
+ * border one that did. Empty space and still lifes cost nothing to step.
+ * <p>
+ * A tile that is skipped did not change last generation, so the spare buffer
+ * (which holds the previous generation) already has the right cells in it.
+ * On a torus the tiles on each edge border those on the opposite edge.
+ * 
+ */
+public class TiledEngine extends PackedEngine {
+
+	/** the height of a tile in rows. A tile is one word wide. */
+	public static final int TILE_ROWS = 64;
+
+	private int tilesDown; // number of tiles in a column of tiles
+	private boolean[] changed; // tiles that changed in the last generation
+	private boolean[] active; // tiles to compute this generation
+	private int activeTiles; // how many tiles were computed last step
+
+	public TiledEngine(boolean[][] grid) {
+		super(grid);
+	}
+
+	@Override
+	public void load(boolean[][] grid) {
+		super.load(grid);
+		resetTiles();
+	}
+
+	@Override
+	public void load(int width, int height, LongBuffer... rows) {
+		super.load(width, height, rows);
+		resetTiles();
+	}
+
+	private void resetTiles() {
+		tilesDown = (height + TILE_ROWS - 1) / TILE_ROWS;
+		changed = new boolean[tilesDown * words];
+		active = new boolean[tilesDown * words];
+		Arrays.fill(changed, true); // everything is new
+	}
+
+	@Override
+	public void step() {
+		if (toroidal)
+			wrapRows();
+		// a tile is active if it or any of its neighbours changed
+		Arrays.fill(active, false);
+		for (int ty = 0; ty < tilesDown; ty++)
+			for (int tx = 0; tx < words; tx++) {
+				if (!changed[ty * words + tx])
+					continue;
+				if (toroidal) {
+					activateAround(ty, tx);
+					continue;
+				}
+				for (int y = Math.max(0, ty - 1); y <= Math.min(tilesDown - 1,
+						ty + 1); y++)
+					for (int x = Math.max(0, tx - 1); x <= Math.min(words - 1,
+							tx + 1); x++)
+						active[y * words + x] = true;
+			}
+
+		activeTiles = 0;
+		Arrays.fill(changed, false);
+		for (int ty = 0; ty < tilesDown; ty++) {
+			int first = ty * TILE_ROWS + 1;
+			int last = Math.min(first + TILE_ROWS, height + 1);
+			int tx = 0;
+			while (tx < words) { // compute each run of active tiles at once
+				if (!active[ty * words + tx]) {
+					tx++;
+					continue;
+				}
+				int end = tx + 1;
+				while (end < words && active[ty * words + end])
+					end++;
+				activeTiles += end - tx;
+
+				for (int row = first; row < last; row++) {
+					stepRow(row, tx, end);
+					for (int k = tx; k < end; k++)
+						if (next[row * words + k] != cells[row * words + k])
+							changed[ty * words + k] = true;
+				}
+				tx = end;
+			}
+		}
+
+		long[] temp = cells; // swap the buffers
+		cells = next;
+		next = temp;
+	}
+
+	@Override
+	public void setRule(Rule rule) {
+		super.setRule(rule);
+		if (changed != null)
+			Arrays.fill(changed, true); // still lifes may not be any more
+	}
+
+	/**
+	 * Activates a tile and its neighbours, wrapping around the edges.
+	 */
+	private void activateAround(int ty, int tx) {
+		for (int dy = -1; dy <= 1; dy++)
+			for (int dx = -1; dx <= 1; dx++) {
+				int y = (ty + dy + tilesDown) % tilesDown;
+				int x = (tx + dx + words) % words;
+				active[y * words + x] = true;
+			}
+	}
+
+	@Override
+	public void setToroidal(boolean toroidal) {
+		super.setToroidal(toroidal);
+		if (changed != null)
+			Arrays.fill(changed, true); // the edges see different cells
+	}
+
+	@Override
+	public void set(int row, int column, boolean alive) {
+		if (row < 0 || row >= height || column < 0 || column >= width)
+			return;
+		super.set(row, column, alive);
+		changed[(row / TILE_ROWS) * words + (column >>> 6)] = true;
+	}
+
+	@Override
+	public void flip(int row, int k, long bits) {
+		super.flip(row, k, bits);
+		if (bits != 0) // stepped with its neighbours, as after set()
+			changed[(row / TILE_ROWS) * words + k] = true;
+	}
+
+	/**
+	 * @return the number of tiles computed in the last generation
+	 */
+	public int getActiveTiles() {
+		return activeTiles;
+	}
+
+	/**
+	 * @return the total number of tiles
+	 */
+	public int getTileCount() {
+		return active.length;
+	}
+}
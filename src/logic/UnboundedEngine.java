@@ -0,0 +1,24 @@
+package logic;
+
+/**
+ * An engine whose universe has no edges. Its width and height only set the
+ * window that get(), set() and getGrid() look through; cells outside it
+ * keep evolving, and are reached with the methods here. Coordinates are
+ * those of get(), so the window's top left is (0, 0).
+ *
+ */
+public interface UnboundedEngine extends Engine {
+
+	/**
+	 * @return the smallest rectangle holding every live cell in the
+	 *         universe, as {top, left, height, width}, or null if there are
+	 *         none
+	 */
+	public long[] getBounds();
+
+	/**
+	 * @return a copy of a rectangle of the universe as a 2D boolean array,
+	 *         whose row i, column j is the cell at (top + i, left + j)
+	 */
+	public boolean[][] getGrid(long top, long left, int height, int width);
+}
@@ -0,0 +1,259 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A bit-packed engine that uses the Vector API to compute several words of a
+ * row per instruction. Needs the jdk.incubator.vector module, so it is
+ * created through Engines, which falls back to the PackedEngine when the
+ * module is not enabled.
+ * <p>
+ * The rule is compiled a second time for this engine, as logic on vectors.
+ * It is applied to the counts of a row in a pass of its own: with the
+ * adders and shifts in the same loop the JIT gave up inlining it. That pass
+ * is a RuleLoop, copied for every rule so the call to the rule in each copy
+ * only ever sees one class: a call seeing several can't be inlined, and
+ * then every vector passed through it is boxed.
+ * 
+ */
+public class VectorEngine extends PackedEngine {
+
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	/**
+	 * A rule as logic on vectors, compiled by RuleCompiler.
+	 */
+	interface VectorLogic {
+		/**
+		 * @see Rule.Logic#next(long, long, long, long, long)
+		 */
+		LongVector next(LongVector c, LongVector s0, LongVector s1,
+				LongVector s2, LongVector s3);
+	}
+
+	/**
+	 * Applies a rule to the counts of a row.
+	 */
+	interface RowLogic {
+		/**
+		 * Sets words [1, to) of the row starting at mid in next from the
+		 * same words of cells and the counts.
+		 */
+		void apply(long[] cells, long[] next, int mid, int to, long[] s0,
+				long[] s1, long[] s2, long[] s3);
+	}
+
+	/**
+	 * The loop applying a VectorLogic. Each rule gets its own copy of this
+	 * class, defined from its class file by loop().
+	 */
+	static final class RuleLoop implements RowLogic {
+		private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+		private final VectorLogic logic;
+
+		RuleLoop(VectorLogic logic) {
+			this.logic = logic;
+		}
+
+		@Override
+		public void apply(long[] cells, long[] next, int mid, int to,
+				long[] s0, long[] s1, long[] s2, long[] s3) {
+			for (int k = 1; k < to; k += SPECIES.length())
+				logic.next(LongVector.fromArray(SPECIES, cells, mid + k),
+						LongVector.fromArray(SPECIES, s0, k),
+						LongVector.fromArray(SPECIES, s1, k),
+						LongVector.fromArray(SPECIES, s2, k),
+						LongVector.fromArray(SPECIES, s3, k)).intoArray(
+						next, mid + k);
+		}
+	}
+
+	/* RuleLoop's class file, or null if it couldn't be read */
+	private static final byte[] loopClass = readLoopClass();
+
+	private RowLogic rowLogic = compile(rule); // null if it couldn't be
+
+	/* the bits of the neighbour counts of the row being stepped */
+	private long[] s0 = new long[0], s1 = s0, s2 = s0, s3 = s0;
+
+	public VectorEngine(boolean[][] grid) {
+		super(grid);
+	}
+
+	/**
+	 * @return the rule as logic on vectors in a loop of its own, or null if
+	 *         it couldn't be compiled. Nothing keeps either class once the
+	 *         engine lets go of it.
+	 */
+	private static RowLogic compile(Rule rule) {
+		try {
+			VectorLogic logic = (VectorLogic) RuleCompiler.define(
+					RuleCompiler.build(rule), VectorLogic.class,
+					"Ljdk/incubator/vector/LongVector;");
+			return loop(logic);
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		} catch (LinkageError e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * @return a new copy of RuleLoop applying the logic, or RuleLoop itself,
+	 *         slower once several rules have been used, if it can't be copied
+	 */
+	private static RowLogic loop(VectorLogic logic)
+			throws ReflectiveOperationException {
+		if (loopClass != null) {
+			try {
+				Class<?> c = MethodHandles.lookup()
+						.defineHiddenClass(loopClass, true).lookupClass();
+				return (RowLogic) c.getDeclaredConstructor(VectorLogic.class)
+						.newInstance(logic);
+			} catch (LinkageError e) {
+				e.printStackTrace();
+			}
+		}
+		return new RuleLoop(logic);
+	}
+
+	private static byte[] readLoopClass() {
+		try {
+			InputStream in = RuleLoop.class
+					.getResourceAsStream("VectorEngine$RuleLoop.class");
+			if (in != null)
+				try {
+					return in.readAllBytes();
+				} finally {
+					in.close();
+				}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public void setRule(Rule rule) {
+		super.setRule(rule);
+		rowLogic = compile(rule);
+	}
+
+	/**
+	 * @return the number of 64-bit words computed per instruction
+	 */
+	public static int getLaneCount() {
+		return SPECIES.length();
+	}
+
+	/**
+	 * @return the vector width in bits
+	 */
+	public static int getVectorBits() {
+		return SPECIES.vectorBitSize();
+	}
+
+	@Override
+	public void step() {
+		if (toroidal)
+			wrapRows();
+		for (int row = 1; row <= height; row++)
+			stepRowVector(row);
+
+		long[] temp = cells; // swap the buffers
+		cells = next;
+		next = temp;
+	}
+
+	/**
+	 * Computes one row of the next generation. The first and last words of
+	 * the row, and any left over, are done by the scalar code since their
+	 * neighbours are off the edge.
+	 */
+	private void stepRowVector(int row) {
+		RowLogic logic = rowLogic;
+		if (logic == null) { // the scalar logic will have to do
+			stepRow(row, 0, words);
+			return;
+		}
+		if (s0.length < words) {
+			s0 = new long[words];
+			s1 = new long[words];
+			s2 = new long[words];
+			s3 = new long[words];
+		}
+		int up = (row - 1) * words, mid = row * words, down = (row + 1) * words;
+		int k = 1;
+		for (; k + SPECIES.length() < words; k += SPECIES.length()) {
+			LongVector n = LongVector.fromArray(SPECIES, cells, up + k);
+			LongVector c = LongVector.fromArray(SPECIES, cells, mid + k);
+			LongVector s = LongVector.fromArray(SPECIES, cells, down + k);
+
+			count(west(n, up + k - 1), n, east(n, up + k + 1),
+					west(c, mid + k - 1), east(c, mid + k + 1),
+					west(s, down + k - 1), s, east(s, down + k + 1), k);
+		}
+		logic.apply(cells, next, mid, k, s0, s1, s2, s3);
+		if (listener != null)
+			reportRow(row, 1, k);
+		stepRow(row, 0, 1);
+		if (k < words)
+			stepRow(row, k, words);
+	}
+
+	/**
+	 * @return the words shifted so every bit holds its west neighbour
+	 */
+	private LongVector west(LongVector v, int leftIndex) {
+		LongVector left = LongVector.fromArray(SPECIES, cells, leftIndex);
+		return v.lanewise(VectorOperators.LSHL, 1).or(
+				left.lanewise(VectorOperators.LSHR, 63));
+	}
+
+	/**
+	 * @return the words shifted so every bit holds its east neighbour
+	 */
+	private LongVector east(LongVector v, int rightIndex) {
+		LongVector right = LongVector.fromArray(SPECIES, cells, rightIndex);
+		return v.lanewise(VectorOperators.LSHR, 1).or(
+				right.lanewise(VectorOperators.LSHL, 63));
+	}
+
+	/**
+	 * The same adders as PackedEngine.nextWord(), a vector at a time. Stores
+	 * the bits of the counts at the given word.
+	 */
+	private void count(LongVector nw, LongVector n, LongVector ne,
+			LongVector w, LongVector e, LongVector sw, LongVector s,
+			LongVector se, int k) {
+		LongVector t = nw.lanewise(VectorOperators.XOR, n);
+		LongVector u0 = t.lanewise(VectorOperators.XOR, ne);
+		LongVector u1 = nw.and(n).or(t.and(ne));
+		t = sw.lanewise(VectorOperators.XOR, s);
+		LongVector d0 = t.lanewise(VectorOperators.XOR, se);
+		LongVector d1 = sw.and(s).or(t.and(se));
+		LongVector m0 = w.lanewise(VectorOperators.XOR, e);
+		LongVector m1 = w.and(e);
+
+		t = u0.lanewise(VectorOperators.XOR, d0);
+		LongVector ones = t.lanewise(VectorOperators.XOR, m0);
+		LongVector k1 = u0.and(d0).or(t.and(m0));
+		t = u1.lanewise(VectorOperators.XOR, d1);
+		LongVector x0 = t.lanewise(VectorOperators.XOR, m1);
+		LongVector x1 = u1.and(d1).or(t.and(m1));
+		LongVector k2 = x0.and(k1);
+
+		ones.intoArray(s0, k);
+		x0.lanewise(VectorOperators.XOR, k1).intoArray(s1, k);
+		x1.lanewise(VectorOperators.XOR, k2).intoArray(s2, k);
+		x1.and(k2).intoArray(s3, k);
+	}
+}